@@ -0,0 +1,166 @@
+package com.southernstorm.noise.crypto;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of the ChaCha20 core hash transformation on top of
+ * the incubating Vector API.
+ *
+ * Each vector holds one word of the state for several consecutive blocks,
+ * one block per lane, so the rounds of all blocks run in parallel. The
+ * class references jdk.incubator.vector and is only loaded by ChaChaCore
+ * when the module was added to the JVM.
+ */
+final class ChaChaVectorCore implements ChaChaCore.BlockHash {
+
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  // lane index, i.e. counter increment of the block in lane
+  private static final int[] LANES = new int[SPECIES.length()];
+  // offset of the first word of the block in lane in the output
+  private static final int[] OUTPUT_MAP = new int[SPECIES.length()];
+
+  static {
+    for (int lane = 0; lane < LANES.length; ++lane) {
+      LANES[lane] = lane;
+      OUTPUT_MAP[lane] = lane * 16;
+    }
+  }
+
+  ChaChaVectorCore() {
+  }
+
+  @Override
+  public int getBlocks() {
+    // narrower vectors don't beat the scalar implementation
+    return SPECIES.vectorBitSize() >= 128 ? SPECIES.length() : 1;
+  }
+
+  @Override
+  public void hash(int[] output, int[] input, int blocks) {
+    IntVector lanes = IntVector.fromArray(SPECIES, LANES, 0);
+    IntVector counterLow = lanes.add(input[12]);
+    VectorMask<Integer> carry = counterLow.compare(VectorOperators.UNSIGNED_LT, input[12]);
+    IntVector counterHigh = IntVector.broadcast(SPECIES, input[13]).lanewise(VectorOperators.ADD, 1, carry);
+
+    IntVector x0 = IntVector.broadcast(SPECIES, input[0]);
+    IntVector x1 = IntVector.broadcast(SPECIES, input[1]);
+    IntVector x2 = IntVector.broadcast(SPECIES, input[2]);
+    IntVector x3 = IntVector.broadcast(SPECIES, input[3]);
+    IntVector x4 = IntVector.broadcast(SPECIES, input[4]);
+    IntVector x5 = IntVector.broadcast(SPECIES, input[5]);
+    IntVector x6 = IntVector.broadcast(SPECIES, input[6]);
+    IntVector x7 = IntVector.broadcast(SPECIES, input[7]);
+    IntVector x8 = IntVector.broadcast(SPECIES, input[8]);
+    IntVector x9 = IntVector.broadcast(SPECIES, input[9]);
+    IntVector x10 = IntVector.broadcast(SPECIES, input[10]);
+    IntVector x11 = IntVector.broadcast(SPECIES, input[11]);
+    IntVector x12 = counterLow;
+    IntVector x13 = counterHigh;
+    IntVector x14 = IntVector.broadcast(SPECIES, input[14]);
+    IntVector x15 = IntVector.broadcast(SPECIES, input[15]);
+
+    // Perform the 20 ChaCha rounds in groups of two.
+    for (int index = 0; index < 20; index += 2) {
+      // Column round.
+      x0 = x0.add(x4);
+      x12 = x12.lanewise(VectorOperators.XOR, x0).lanewise(VectorOperators.ROL, 16);
+      x8 = x8.add(x12);
+      x4 = x4.lanewise(VectorOperators.XOR, x8).lanewise(VectorOperators.ROL, 12);
+      x0 = x0.add(x4);
+      x12 = x12.lanewise(VectorOperators.XOR, x0).lanewise(VectorOperators.ROL, 8);
+      x8 = x8.add(x12);
+      x4 = x4.lanewise(VectorOperators.XOR, x8).lanewise(VectorOperators.ROL, 7);
+
+      x1 = x1.add(x5);
+      x13 = x13.lanewise(VectorOperators.XOR, x1).lanewise(VectorOperators.ROL, 16);
+      x9 = x9.add(x13);
+      x5 = x5.lanewise(VectorOperators.XOR, x9).lanewise(VectorOperators.ROL, 12);
+      x1 = x1.add(x5);
+      x13 = x13.lanewise(VectorOperators.XOR, x1).lanewise(VectorOperators.ROL, 8);
+      x9 = x9.add(x13);
+      x5 = x5.lanewise(VectorOperators.XOR, x9).lanewise(VectorOperators.ROL, 7);
+
+      x2 = x2.add(x6);
+      x14 = x14.lanewise(VectorOperators.XOR, x2).lanewise(VectorOperators.ROL, 16);
+      x10 = x10.add(x14);
+      x6 = x6.lanewise(VectorOperators.XOR, x10).lanewise(VectorOperators.ROL, 12);
+      x2 = x2.add(x6);
+      x14 = x14.lanewise(VectorOperators.XOR, x2).lanewise(VectorOperators.ROL, 8);
+      x10 = x10.add(x14);
+      x6 = x6.lanewise(VectorOperators.XOR, x10).lanewise(VectorOperators.ROL, 7);
+
+      x3 = x3.add(x7);
+      x15 = x15.lanewise(VectorOperators.XOR, x3).lanewise(VectorOperators.ROL, 16);
+      x11 = x11.add(x15);
+      x7 = x7.lanewise(VectorOperators.XOR, x11).lanewise(VectorOperators.ROL, 12);
+      x3 = x3.add(x7);
+      x15 = x15.lanewise(VectorOperators.XOR, x3).lanewise(VectorOperators.ROL, 8);
+      x11 = x11.add(x15);
+      x7 = x7.lanewise(VectorOperators.XOR, x11).lanewise(VectorOperators.ROL, 7);
+
+      // Diagonal round.
+      x0 = x0.add(x5);
+      x15 = x15.lanewise(VectorOperators.XOR, x0).lanewise(VectorOperators.ROL, 16);
+      x10 = x10.add(x15);
+      x5 = x5.lanewise(VectorOperators.XOR, x10).lanewise(VectorOperators.ROL, 12);
+      x0 = x0.add(x5);
+      x15 = x15.lanewise(VectorOperators.XOR, x0).lanewise(VectorOperators.ROL, 8);
+      x10 = x10.add(x15);
+      x5 = x5.lanewise(VectorOperators.XOR, x10).lanewise(VectorOperators.ROL, 7);
+
+      x1 = x1.add(x6);
+      x12 = x12.lanewise(VectorOperators.XOR, x1).lanewise(VectorOperators.ROL, 16);
+      x11 = x11.add(x12);
+      x6 = x6.lanewise(VectorOperators.XOR, x11).lanewise(VectorOperators.ROL, 12);
+      x1 = x1.add(x6);
+      x12 = x12.lanewise(VectorOperators.XOR, x1).lanewise(VectorOperators.ROL, 8);
+      x11 = x11.add(x12);
+      x6 = x6.lanewise(VectorOperators.XOR, x11).lanewise(VectorOperators.ROL, 7);
+
+      x2 = x2.add(x7);
+      x13 = x13.lanewise(VectorOperators.XOR, x2).lanewise(VectorOperators.ROL, 16);
+      x8 = x8.add(x13);
+      x7 = x7.lanewise(VectorOperators.XOR, x8).lanewise(VectorOperators.ROL, 12);
+      x2 = x2.add(x7);
+      x13 = x13.lanewise(VectorOperators.XOR, x2).lanewise(VectorOperators.ROL, 8);
+      x8 = x8.add(x13);
+      x7 = x7.lanewise(VectorOperators.XOR, x8).lanewise(VectorOperators.ROL, 7);
+
+      x3 = x3.add(x4);
+      x14 = x14.lanewise(VectorOperators.XOR, x3).lanewise(VectorOperators.ROL, 16);
+      x9 = x9.add(x14);
+      x4 = x4.lanewise(VectorOperators.XOR, x9).lanewise(VectorOperators.ROL, 12);
+      x3 = x3.add(x4);
+      x14 = x14.lanewise(VectorOperators.XOR, x3).lanewise(VectorOperators.ROL, 8);
+      x9 = x9.add(x14);
+      x4 = x4.lanewise(VectorOperators.XOR, x9).lanewise(VectorOperators.ROL, 7);
+    }
+
+    // Add the input block to the output and transpose words back into blocks.
+    VectorMask<Integer> used = SPECIES.indexInRange(0, blocks);
+    store(x0.add(input[0]), output, 0, used);
+    store(x1.add(input[1]), output, 1, used);
+    store(x2.add(input[2]), output, 2, used);
+    store(x3.add(input[3]), output, 3, used);
+    store(x4.add(input[4]), output, 4, used);
+    store(x5.add(input[5]), output, 5, used);
+    store(x6.add(input[6]), output, 6, used);
+    store(x7.add(input[7]), output, 7, used);
+    store(x8.add(input[8]), output, 8, used);
+    store(x9.add(input[9]), output, 9, used);
+    store(x10.add(input[10]), output, 10, used);
+    store(x11.add(input[11]), output, 11, used);
+    store(x12.add(counterLow), output, 12, used);
+    store(x13.add(counterHigh), output, 13, used);
+    store(x14.add(input[14]), output, 14, used);
+    store(x15.add(input[15]), output, 15, used);
+  }
+
+  private static void store(IntVector word, int[] output, int index, VectorMask<Integer> used) {
+    word.intoArray(output, index, OUTPUT_MAP, 0, used);
+  }
+}
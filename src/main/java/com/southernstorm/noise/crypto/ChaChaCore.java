@@ -27,9 +27,62 @@ package com.southernstorm.noise.crypto;
  */
 public final class ChaChaCore {
 
+  // vectorized implementation, null if jdk.incubator.vector isn't present
+  private static final BlockHash PARALLEL = loadParallel();
+
   private ChaChaCore() {
   }
 
+  /**
+   * Hashes several consecutive ChaCha20 blocks at once.
+   */
+  interface BlockHash {
+
+    /**
+     * @return The number of blocks computed in parallel.
+     */
+    int getBlocks();
+
+    /**
+     * Hashes consecutive blocks of the input with ChaCha20.
+     *
+     * @param output The output blocks, 16 words per block.
+     * @param input The input block of the first block. Block i uses
+     *            the 64-bit counter in words 12 and 13 incremented by i.
+     *            The input is not modified.
+     * @param blocks The number of blocks, at most getBlocks().
+     */
+    void hash(int[] output, int[] input, int blocks);
+  }
+
+  /**
+   * Gets the number of blocks which hashBlocks() computes in parallel.
+   *
+   * @return The number of blocks or 1 if there is no parallel
+   *         implementation available; i.e. the jdk.incubator.vector
+   *         module wasn't added to the JVM.
+   */
+  public static int getParallelBlocks() {
+    return PARALLEL != null ? PARALLEL.getBlocks() : 1;
+  }
+
+  /**
+   * Hashes consecutive input blocks with ChaCha20.
+   *
+   * @param output The output blocks, which must contain at least
+   *            16 * blocks elements and must not overlap with the input.
+   * @param input The input block of the first block. Following blocks
+   *            use the 64-bit counter in words 12 and 13 incremented
+   *            by one per block. The input is not modified.
+   * @param blocks The number of blocks between 1 and getParallelBlocks().
+   */
+  public static void hashBlocks(int[] output, int[] input, int blocks) {
+    if (blocks > 1)
+      PARALLEL.hash(output, input, blocks);
+    else
+      hash(output, input);
+  }
+
   /**
    * Hashes an input block with ChaCha20.
    *
@@ -162,6 +215,18 @@ public final class ChaChaCore {
     output[15] = (int) (iv >> 32);
   }
 
+  private static BlockHash loadParallel() {
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+      return null;
+    try {
+      BlockHash hash = (BlockHash) Class.forName("com.southernstorm.noise.crypto.ChaChaVectorCore")
+        .getDeclaredConstructor().newInstance();
+      return hash.getBlocks() > 1 ? hash : null;
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return null;
+    }
+  }
+
   private static int leftRotate16(int v) {
     return v << 16 | (v >>> 16);
   }
@@ -38,6 +38,7 @@ class ChaChaPolyCipherState implements CipherState {
   private final Poly1305 poly;
   private final int[] input;
   private final int[] output;
+  private final int[] keystream;
   private final byte[] polyKey;
   private boolean haskey;
 
@@ -48,6 +49,7 @@ class ChaChaPolyCipherState implements CipherState {
     poly = new Poly1305();
     input = new int[16];
     output = new int[16];
+    keystream = new int[16 * ChaChaCore.getParallelBlocks()];
     polyKey = new byte[32];
     n = 0;
     haskey = false;
@@ -62,10 +64,11 @@ class ChaChaPolyCipherState implements CipherState {
    * @param outputOffset The offset of the first output byte.
    * @param length The number of bytes to XOR between 1 and 64.
    * @param block The ChaCha20 output block.
+   * @param blockOffset The offset of the first word of the output block.
    */
   private static void xorBlock(byte[] input, int inputOffset, byte[] output, int outputOffset, int length,
-                               int[] block) {
-    int posn = 0;
+                               int[] block, int blockOffset) {
+    int posn = blockOffset;
     int value;
     while (length >= 4) {
       value = block[posn++];
@@ -115,6 +118,7 @@ class ChaChaPolyCipherState implements CipherState {
     poly.destroy();
     Arrays.fill(input, 0);
     Arrays.fill(output, 0);
+    Arrays.fill(keystream, 0);
     Noise.destroy(polyKey);
   }
 
@@ -156,7 +160,7 @@ class ChaChaPolyCipherState implements CipherState {
     ChaChaCore.initIV(input, n++);
     ChaChaCore.hash(output, input);
     Arrays.fill(polyKey, (byte) 0);
-    xorBlock(polyKey, 0, polyKey, 0, 32, output);
+    xorBlock(polyKey, 0, polyKey, 0, 32, output, 0);
     poly.reset(polyKey, 0);
     if (ad != null) {
       poly.update(ad, 0, ad.length);
@@ -190,12 +194,27 @@ class ChaChaPolyCipherState implements CipherState {
    * @param length The number of bytes to encrypt.
    */
   private void encrypt(byte[] plaintext, int plaintextOffset, byte[] ciphertext, int ciphertextOffset, int length) {
+    // Hash several blocks at once while there is more than one block left.
+    int parallelBlocks = ChaChaCore.getParallelBlocks();
+    while (parallelBlocks > 1 && length > 64) {
+      int blocks = Math.min(parallelBlocks, (length + 63) / 64);
+      ChaChaCore.hashBlocks(keystream, input, blocks);
+      for (int block = 0; block < blocks; ++block) {
+        int tempLen = Math.min(64, length);
+        xorBlock(plaintext, plaintextOffset, ciphertext, ciphertextOffset, tempLen, keystream, block * 16);
+        if (++(input[12]) == 0)
+          ++(input[13]);
+        plaintextOffset += tempLen;
+        ciphertextOffset += tempLen;
+        length -= tempLen;
+      }
+    }
     while (length > 0) {
       int tempLen = 64;
       if (tempLen > length)
         tempLen = length;
       ChaChaCore.hash(output, input);
-      xorBlock(plaintext, plaintextOffset, ciphertext, ciphertextOffset, tempLen, output);
+      xorBlock(plaintext, plaintextOffset, ciphertext, ciphertextOffset, tempLen, output, 0);
       if (++(input[12]) == 0)
         ++(input[13]);
       plaintextOffset += tempLen;
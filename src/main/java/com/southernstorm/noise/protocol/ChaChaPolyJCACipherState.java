@@ -0,0 +1,185 @@
+package com.southernstorm.noise.protocol;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Implements the ChaChaPoly cipher for Noise using the
+ * "ChaCha20-Poly1305" transformation from JCA (JDK 11+).
+ *
+ * The 96-bit nonce is 32 bits of zeroes followed by the 64-bit
+ * little-endian packet counter, as defined by the Noise specification.
+ */
+class ChaChaPolyJCACipherState implements CipherState {
+
+  private static final String TRANSFORMATION = "ChaCha20-Poly1305";
+
+  private final Cipher cipher;
+  private final byte[] key;
+  private final byte[] iv;
+  private SecretKeySpec keySpec;
+  private long n;
+
+  /**
+   * Constructs a new cipher state for the "ChaChaPoly" algorithm.
+   *
+   * @throws NoSuchAlgorithmException The system does not have a
+   *             provider for this algorithm.
+   */
+  public ChaChaPolyJCACipherState() throws NoSuchAlgorithmException {
+    try {
+      cipher = Cipher.getInstance(TRANSFORMATION);
+    } catch (NoSuchPaddingException e) {
+      throw new NoSuchAlgorithmException(TRANSFORMATION + " is not supported", e);
+    }
+    key = new byte[32];
+    iv = new byte[12];
+    n = 0;
+  }
+
+  @Override
+  public void destroy() {
+    // the key copy inside SecretKeySpec can't be wiped, drop the reference to it
+    keySpec = null;
+    Noise.destroy(key);
+    Arrays.fill(iv, (byte) 0);
+  }
+
+  @Override
+  public String getCipherName() {
+    return "ChaChaPoly";
+  }
+
+  @Override
+  public int getKeyLength() {
+    return 32;
+  }
+
+  @Override
+  public int getMACLength() {
+    return keySpec != null ? 16 : 0;
+  }
+
+  @Override
+  public void initializeKey(byte[] key, int offset) {
+    System.arraycopy(key, offset, this.key, 0, 32);
+    keySpec = new SecretKeySpec(this.key, "ChaCha20");
+    n = 0;
+  }
+
+  @Override
+  public boolean hasKey() {
+    return keySpec != null;
+  }
+
+  /**
+   * Set up to encrypt or decrypt the next packet.
+   *
+   * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE.
+   * @param ad The associated data for the packet.
+   */
+  private void setup(int mode, byte[] ad) {
+    if (n == -1L)
+      throw new IllegalStateException("Nonce has wrapped around");
+    long nonce = n++;
+    for (int index = 0; index < 8; ++index)
+      iv[4 + index] = (byte) (nonce >> (index * 8));
+    try {
+      cipher.init(mode, keySpec, new IvParameterSpec(iv));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+    if (ad != null)
+      cipher.updateAAD(ad);
+  }
+
+  @Override
+  public int encryptWithAd(byte[] ad, byte[] plaintext, int plaintextOffset, byte[] ciphertext, int ciphertextOffset,
+                           int length) throws ShortBufferException {
+    int space;
+    if (ciphertextOffset < 0 || ciphertextOffset > ciphertext.length)
+      throw new IllegalArgumentException();
+    if (length < 0 || plaintextOffset < 0 || plaintextOffset > plaintext.length || length > plaintext.length
+        || (plaintext.length - plaintextOffset) < length)
+      throw new IllegalArgumentException();
+    space = ciphertext.length - ciphertextOffset;
+    if (keySpec == null) {
+      // The key is not set yet - return the plaintext as-is.
+      if (length > space)
+        throw new ShortBufferException();
+      if (plaintext != ciphertext || plaintextOffset != ciphertextOffset)
+        System.arraycopy(plaintext, plaintextOffset, ciphertext, ciphertextOffset, length);
+      return length;
+    }
+    if (space < 16 || length > (space - 16))
+      throw new ShortBufferException();
+    setup(Cipher.ENCRYPT_MODE, ad);
+    try {
+      return cipher.doFinal(plaintext, plaintextOffset, length, ciphertext, ciphertextOffset);
+    } catch (ShortBufferException e) {
+      throw e;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public int decryptWithAd(byte[] ad, byte[] ciphertext, int ciphertextOffset, byte[] plaintext, int plaintextOffset,
+                           int length) throws ShortBufferException, BadPaddingException {
+    int space;
+    if (ciphertextOffset < 0 || ciphertextOffset > ciphertext.length)
+      throw new IllegalArgumentException();
+    else
+      space = ciphertext.length - ciphertextOffset;
+    if (length > space)
+      throw new ShortBufferException();
+    if (length < 0 || plaintextOffset < 0 || plaintextOffset > plaintext.length || length > ciphertext.length
+        || (ciphertext.length - ciphertextOffset) < length)
+      throw new IllegalArgumentException();
+    space = plaintext.length - plaintextOffset;
+    if (keySpec == null) {
+      // The key is not set yet - return the ciphertext as-is.
+      if (length > space)
+        throw new ShortBufferException();
+      if (plaintext != ciphertext || plaintextOffset != ciphertextOffset)
+        System.arraycopy(ciphertext, ciphertextOffset, plaintext, plaintextOffset, length);
+      return length;
+    }
+    if (length < 16)
+      Noise.throwBadTagException();
+    if (length - 16 > space)
+      throw new ShortBufferException();
+    setup(Cipher.DECRYPT_MODE, ad);
+    try {
+      return cipher.doFinal(ciphertext, ciphertextOffset, length, plaintext, plaintextOffset);
+    } catch (ShortBufferException | BadPaddingException e) {
+      throw e;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public CipherState fork(byte[] key, int offset) {
+    CipherState fork;
+    try {
+      fork = new ChaChaPolyJCACipherState();
+    } catch (NoSuchAlgorithmException e) {
+      fork = new ChaChaPolyCipherState();
+    }
+    fork.initializeKey(key, offset);
+    return fork;
+  }
+
+  @Override
+  public void setNonce(long nonce) {
+    n = nonce;
+  }
+}
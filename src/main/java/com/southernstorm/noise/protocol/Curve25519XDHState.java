@@ -0,0 +1,254 @@
+package com.southernstorm.noise.protocol;
+
+import javax.crypto.KeyAgreement;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.XECPrivateKey;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.XECPrivateKeySpec;
+import java.security.spec.XECPublicKeySpec;
+import java.util.Arrays;
+
+/**
+ * Implementation of the Curve25519 algorithm for the Noise protocol
+ * on top of the "X25519" key agreement from JCA (JDK 11+).
+ *
+ * Keys are kept in the same raw 32 byte little-endian form as in
+ * Curve25519DHState, so copyFrom() and calculate() of this class also
+ * accept Curve25519DHState key objects. The reverse isn't supported,
+ * Curve25519DHState rejects key objects of this class.
+ */
+class Curve25519XDHState implements DHState {
+
+  private static final String ALGORITHM = "X25519";
+  private static final boolean AVAILABLE = isAvailable();
+  private static final byte[] BASE_POINT = new byte[32];
+  // JCA objects aren't thread safe, and a new key object is created for every handshake and pooled key, so
+  // provider lookups are done once per thread instead of once per key object
+  private static final ThreadLocal<Jca> JCA = ThreadLocal.withInitial(Jca::new);
+
+  static {
+    BASE_POINT[0] = 9;
+  }
+
+  private final byte[] publicKey;
+  private final byte[] privateKey;
+  private int mode;
+
+  /**
+   * Constructs a new Diffie-Hellman object for Curve25519.
+   *
+   * @throws NoSuchAlgorithmException The system does not have a
+   *             provider for X25519.
+   */
+  public Curve25519XDHState() throws NoSuchAlgorithmException {
+    if (!AVAILABLE)
+      throw new NoSuchAlgorithmException(ALGORITHM + " is not supported");
+    publicKey = new byte[32];
+    privateKey = new byte[32];
+    mode = 0;
+  }
+
+  @Override
+  public void destroy() {
+    clearKey();
+  }
+
+  @Override
+  public String getDHName() {
+    return "25519";
+  }
+
+  @Override
+  public int getPublicKeyLength() {
+    return 32;
+  }
+
+  @Override
+  public int getPrivateKeyLength() {
+    return 32;
+  }
+
+  @Override
+  public int getSharedKeyLength() {
+    return 32;
+  }
+
+  @Override
+  public void generateKeyPair() {
+    try {
+      KeyPair keyPair = JCA.get().keyPairGenerator().generateKeyPair();
+      byte[] scalar = ((XECPrivateKey) keyPair.getPrivate()).getScalar()
+        .orElseThrow(() -> new IllegalStateException("Private key is not extractable"));
+      System.arraycopy(scalar, 0, privateKey, 0, 32);
+      Noise.destroy(scalar);
+      encodeU(((XECPublicKey) keyPair.getPublic()).getU(), publicKey);
+      mode = 0x03;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void getPublicKey(byte[] key, int offset) {
+    System.arraycopy(publicKey, 0, key, offset, 32);
+  }
+
+  @Override
+  public void setPublicKey(byte[] key, int offset) {
+    System.arraycopy(key, offset, publicKey, 0, 32);
+    Arrays.fill(privateKey, (byte) 0);
+    mode = 0x01;
+  }
+
+  @Override
+  public void getPrivateKey(byte[] key, int offset) {
+    System.arraycopy(privateKey, 0, key, offset, 32);
+  }
+
+  @Override
+  public void setPrivateKey(byte[] key, int offset) {
+    System.arraycopy(key, offset, privateKey, 0, 32);
+    // public key is the shared secret with the base point
+    agree(privateKey, BASE_POINT, publicKey, 0);
+    mode = 0x03;
+  }
+
+  @Override
+  public void setToNullPublicKey() {
+    Arrays.fill(publicKey, (byte) 0);
+    Arrays.fill(privateKey, (byte) 0);
+    mode = 0x01;
+  }
+
+  @Override
+  public void clearKey() {
+    Noise.destroy(publicKey);
+    Noise.destroy(privateKey);
+    mode = 0;
+  }
+
+  @Override
+  public boolean hasPublicKey() {
+    return (mode & 0x01) != 0;
+  }
+
+  @Override
+  public boolean hasPrivateKey() {
+    return (mode & 0x02) != 0;
+  }
+
+  @Override
+  public boolean isNullPublicKey() {
+    if ((mode & 0x01) == 0)
+      return false;
+    int temp = 0;
+    for (int index = 0; index < 32; ++index)
+      temp |= publicKey[index];
+    return temp == 0;
+  }
+
+  @Override
+  public void calculate(byte[] sharedKey, int offset, DHState publicDH) {
+    if (!(publicDH instanceof Curve25519XDHState) && !(publicDH instanceof Curve25519DHState))
+      throw new IllegalArgumentException("Incompatible DH algorithms");
+    byte[] remoteKey = new byte[32];
+    publicDH.getPublicKey(remoteKey, 0);
+    agree(privateKey, remoteKey, sharedKey, offset);
+  }
+
+  @Override
+  public void copyFrom(DHState other) {
+    if (!(other instanceof Curve25519XDHState) && !(other instanceof Curve25519DHState))
+      throw new IllegalStateException("Mismatched DH key objects");
+    if (other == this)
+      return;
+    if (other.hasPrivateKey()) {
+      other.getPrivateKey(privateKey, 0);
+      other.getPublicKey(publicKey, 0);
+      mode = 0x03;
+    } else if (other.hasPublicKey()) {
+      other.getPublicKey(publicKey, 0);
+      Arrays.fill(privateKey, (byte) 0);
+      mode = 0x01;
+    } else {
+      clearKey();
+    }
+  }
+
+  private void agree(byte[] scalar, byte[] u, byte[] output, int offset) {
+    try {
+      Jca jca = JCA.get();
+      KeyFactory keyFactory = jca.keyFactory();
+      KeyAgreement keyAgreement = jca.keyAgreement();
+      PrivateKey key = keyFactory.generatePrivate(new XECPrivateKeySpec(NamedParameterSpec.X25519, scalar));
+      PublicKey remote = keyFactory.generatePublic(new XECPublicKeySpec(NamedParameterSpec.X25519, decodeU(u)));
+      keyAgreement.init(key);
+      keyAgreement.doPhase(remote, true);
+      keyAgreement.generateSecret(output, offset);
+    } catch (GeneralSecurityException e) {
+      // i.e. JCA rejects small order points with all-zero result
+      Arrays.fill(output, offset, offset + 32, (byte) 0);
+      throw new IllegalStateException("X25519 key agreement failed", e);
+    }
+  }
+
+  // u coordinate is little-endian, the high bit is ignored as required by RFC 7748
+  private static BigInteger decodeU(byte[] u) {
+    byte[] bigEndian = new byte[32];
+    for (int i = 0; i < 32; ++i)
+      bigEndian[i] = u[31 - i];
+    bigEndian[0] &= 0x7F;
+    return new BigInteger(1, bigEndian);
+  }
+
+  private static void encodeU(BigInteger u, byte[] output) {
+    byte[] bigEndian = u.toByteArray();
+    Arrays.fill(output, (byte) 0);
+    for (int i = 0; i < 32 && i < bigEndian.length; ++i)
+      output[i] = bigEndian[bigEndian.length - 1 - i];
+  }
+
+  private static boolean isAvailable() {
+    try {
+      KeyPairGenerator.getInstance(ALGORITHM);
+      KeyAgreement.getInstance(ALGORITHM);
+      KeyFactory.getInstance(ALGORITHM);
+      return true;
+    } catch (NoSuchAlgorithmException e) {
+      return false;
+    }
+  }
+
+  private static final class Jca {
+
+    private KeyPairGenerator keyPairGenerator;
+    private KeyFactory keyFactory;
+    private KeyAgreement keyAgreement;
+
+    KeyPairGenerator keyPairGenerator() throws NoSuchAlgorithmException {
+      if (keyPairGenerator == null)
+        keyPairGenerator = KeyPairGenerator.getInstance(ALGORITHM);
+      return keyPairGenerator;
+    }
+
+    KeyFactory keyFactory() throws NoSuchAlgorithmException {
+      if (keyFactory == null)
+        keyFactory = KeyFactory.getInstance(ALGORITHM);
+      return keyFactory;
+    }
+
+    KeyAgreement keyAgreement() throws NoSuchAlgorithmException {
+      if (keyAgreement == null)
+        keyAgreement = KeyAgreement.getInstance(ALGORITHM);
+      return keyAgreement;
+    }
+  }
+}
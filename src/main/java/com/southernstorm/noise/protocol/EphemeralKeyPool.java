@@ -0,0 +1,178 @@
+package com.southernstorm.noise.protocol;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pool of pre-generated ephemeral key pairs.
+ *
+ * Generating a key pair is the most expensive step of writing the
+ * first handshake message. When a pool is started for a DH algorithm,
+ * HandshakeState takes the ephemeral key pair from the pool instead of
+ * generating it on the calling thread, and a background thread
+ * refills the pool.
+ *
+ * Every pooled key pair is handed out at most once: it is removed
+ * from the pool, copied into the handshake's key object and destroyed.
+ * When the pool is empty, the handshake generates the key pair itself
+ * and the starvation is counted.
+ */
+public final class EphemeralKeyPool implements Destroyable {
+
+  public static final int DEFAULT_CAPACITY = 32;
+
+  private static final Map<String, EphemeralKeyPool> POOLS = new ConcurrentHashMap<>();
+
+  private final String dhName;
+  private final BlockingQueue<DHState> keys;
+  private final AtomicLong taken = new AtomicLong();
+  private final AtomicLong starvations = new AtomicLong();
+  private final Thread worker;
+  private volatile boolean running = true;
+
+  private EphemeralKeyPool(String dhName, int capacity) {
+    this.dhName = dhName;
+    this.keys = new ArrayBlockingQueue<>(capacity);
+    this.worker = new Thread(this::refill, "Noise Key Pool " + dhName);
+    this.worker.setDaemon(true);
+  }
+
+  /**
+   * Starts a pool for a DH algorithm, replacing a previously started one.
+   *
+   * @param dhName The Noise name of the DH algorithm; e.g. "25519".
+   * @param capacity The number of key pairs to keep ready.
+   *
+   * @return The started pool.
+   *
+   * @throws NoSuchAlgorithmException The DH algorithm is not supported.
+   */
+  public static EphemeralKeyPool start(String dhName, int capacity) throws NoSuchAlgorithmException {
+    Noise.createDH(dhName).destroy();
+    EphemeralKeyPool pool = new EphemeralKeyPool(dhName, Math.max(1, capacity));
+    EphemeralKeyPool previous = POOLS.put(dhName, pool);
+    if (previous != null)
+      previous.destroy();
+    pool.worker.start();
+    return pool;
+  }
+
+  /**
+   * Gets the started pool for a DH algorithm.
+   *
+   * @param dhName The Noise name of the DH algorithm.
+   *
+   * @return The pool or null if no pool was started for the algorithm.
+   */
+  public static EphemeralKeyPool get(String dhName) {
+    return POOLS.get(dhName);
+  }
+
+  /**
+   * Stops all pools and destroys pooled key pairs.
+   */
+  public static void stopAll() {
+    POOLS.values().removeIf(pool -> {
+      pool.destroy();
+      return true;
+    });
+  }
+
+  /**
+   * Loads a pooled key pair into a key object.
+   *
+   * @param target The key object to load the key pair into.
+   *
+   * @return true if the key pair was taken from the pool, false if there
+   *         is no pool for the algorithm or it is empty and the caller
+   *         has to generate the key pair itself.
+   */
+  static boolean take(DHState target) {
+    EphemeralKeyPool pool = POOLS.get(target.getDHName());
+    return pool != null && pool.takeInto(target);
+  }
+
+  /**
+   * Gets the number of key pairs handed out by this pool.
+   *
+   * @return The number of taken key pairs.
+   */
+  public long getTaken() {
+    return taken.get();
+  }
+
+  /**
+   * Gets the number of handshakes that found this pool empty and had
+   * to generate the ephemeral key pair themselves.
+   *
+   * @return The number of starvations.
+   */
+  public long getStarvations() {
+    return starvations.get();
+  }
+
+  /**
+   * Gets the number of key pairs ready in the pool.
+   *
+   * @return The number of pooled key pairs.
+   */
+  public int size() {
+    return keys.size();
+  }
+
+  @Override
+  public void destroy() {
+    running = false;
+    LockSupport.unpark(worker);
+    DHState key;
+    while ((key = keys.poll()) != null)
+      key.destroy();
+  }
+
+  private boolean takeInto(DHState target) {
+    DHState key = keys.poll();
+    if (key == null) {
+      starvations.incrementAndGet();
+      LockSupport.unpark(worker);
+      return false;
+    }
+    try {
+      target.copyFrom(key);
+    } catch (IllegalStateException e) {
+      // key object of other implementation, i.e. fallbacks were forced after the pool was started
+      return false;
+    } finally {
+      key.destroy();
+    }
+    taken.incrementAndGet();
+    LockSupport.unpark(worker);
+    return true;
+  }
+
+  private void refill() {
+    while (running) {
+      if (keys.remainingCapacity() == 0) {
+        LockSupport.park(this);
+        continue;
+      }
+      DHState key;
+      try {
+        key = Noise.createDH(dhName);
+      } catch (NoSuchAlgorithmException e) {
+        return;
+      }
+      key.generateKeyPair();
+      if (!running || !keys.offer(key))
+        key.destroy();
+    }
+    // pool was stopped while worker was adding a key
+    DHState key;
+    while ((key = keys.poll()) != null)
+      key.destroy();
+  }
+}
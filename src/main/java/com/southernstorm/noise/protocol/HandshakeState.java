@@ -208,6 +208,68 @@ public class HandshakeState implements Destroyable {
       throw new NoSuchAlgorithmException("Cannot use '" + remoteEphemeral.getDHName() + "' for ephemeral keys");
   }
 
+  /**
+   * Creates a copy of a started handshake.
+   *
+   * @param other The handshake to copy.
+   *
+   * @throws NoSuchAlgorithmException One of the cryptographic algorithms
+   *             is not supported.
+   */
+  private HandshakeState(HandshakeState other) throws NoSuchAlgorithmException {
+    symmetric = new SymmetricState(other.symmetric);
+    isInitiator = other.isInitiator;
+    isNoisePsk = other.isNoisePsk;
+    action = other.action;
+    requirements = other.requirements;
+    pattern = other.pattern;
+    patternIndex = other.patternIndex;
+    localKeyPair = copyDH(other.localKeyPair, true);
+    localEphemeral = copyDH(other.localEphemeral, false);
+    localHybrid = copyDH(other.localHybrid, false);
+    remotePublicKey = copyDH(other.remotePublicKey, true);
+    remoteEphemeral = copyDH(other.remoteEphemeral, false);
+    remoteHybrid = copyDH(other.remoteHybrid, false);
+    if (other.preSharedKeyForNoisePSK != null)
+      preSharedKeyForNoisePSK = other.preSharedKeyForNoisePSK.clone();
+    if (other.prologue != null)
+      prologue = other.prologue.clone();
+  }
+
+  /**
+   * Creates a copy of this handshake for a new session.
+   *
+   * The handshake must be started and must not have processed any
+   * message yet. The copy starts at the same point, which saves parsing
+   * of the protocol name and hashing of the protocol name, prologue and
+   * pre-message keys when the same handshake is repeated, e.g. when
+   * reconnecting to the same device. Static keys and pre-shared key are
+   * copied, ephemeral keys are not, so every copy generates its own.
+   *
+   * @return The new handshake object.
+   *
+   * @throws IllegalStateException The handshake was not started or
+   *             has already processed a message.
+   *
+   * @throws NoSuchAlgorithmException One of the cryptographic algorithms
+   *             is not supported.
+   */
+  public HandshakeState copy() throws NoSuchAlgorithmException {
+    if ((action != WRITE_MESSAGE && action != READ_MESSAGE) || patternIndex != 1) {
+      throw new IllegalStateException("Only started handshake without processed messages can be copied");
+    }
+    return new HandshakeState(this);
+  }
+
+  private static DHState copyDH(DHState dh, boolean withKey) throws NoSuchAlgorithmException {
+    if (dh == null)
+      return null;
+    DHState copy = Noise.createDH(dh.getDHName());
+    if (withKey)
+      copy.copyFrom(dh);
+    return copy;
+  }
+
   /**
    * Computes the requirements for a handshake.
    *
@@ -795,10 +857,10 @@ public class HandshakeState implements Destroyable {
             // then the ephemeral key may have already been provided.
             if (localEphemeral == null)
               throw new IllegalStateException("Pattern definition error");
-            if (fixedEphemeral == null)
-              localEphemeral.generateKeyPair();
-            else
+            if (fixedEphemeral != null)
               localEphemeral.copyFrom(fixedEphemeral);
+            else if (!EphemeralKeyPool.take(localEphemeral))
+              localEphemeral.generateKeyPair();
             len = localEphemeral.getPublicKeyLength();
             if (space < len)
               throw new ShortBufferException();
@@ -81,8 +81,16 @@ public final class Noise {
    *             in the system that implements the algorithm.
    */
   public static DHState createDH(String name) throws NoSuchAlgorithmException {
-    if (name.equals("25519"))
-      return new Curve25519DHState();
+    if (name.equals("25519")) {
+      if (forceFallbacks)
+        return new Curve25519DHState();
+      // Use the "X25519" key agreement from JCA (JDK 11+) if available.
+      try {
+        return new Curve25519XDHState();
+      } catch (NoSuchAlgorithmException e) {
+        return new Curve25519DHState();
+      }
+    }
     if (name.equals("448"))
       return new Curve448DHState();
     if (name.equals("NewHope"))
@@ -116,7 +124,14 @@ public final class Noise {
         return new AESGCMFallbackCipherState();
       }
     } else if (name.equals("ChaChaPoly")) {
-      return new ChaChaPolyCipherState();
+      if (forceFallbacks)
+        return new ChaChaPolyCipherState();
+      // Use "ChaCha20-Poly1305" from JCA (JDK 11+) if available.
+      try {
+        return new ChaChaPolyJCACipherState();
+      } catch (NoSuchAlgorithmException e) {
+        return new ChaChaPolyCipherState();
+      }
     }
     throw new NoSuchAlgorithmException("Unknown Noise cipher algorithm name: " + name);
   }
@@ -36,6 +36,7 @@ import java.util.Arrays;
 class SymmetricState implements Destroyable {
 
   private final String name;
+  private final String hashName;
   private CipherState cipher;
   private MessageDigest hash;
   private byte[] ck;
@@ -54,6 +55,7 @@ class SymmetricState implements Destroyable {
    */
   public SymmetricState(String protocolName, String cipherName, String hashName) throws NoSuchAlgorithmException {
     name = protocolName;
+    this.hashName = hashName;
     cipher = Noise.createCipher(cipherName);
     hash = Noise.createHash(hashName);
     int hashLength = hash.getDigestLength();
@@ -74,6 +76,32 @@ class SymmetricState implements Destroyable {
     System.arraycopy(h, 0, ck, 0, hashLength);
   }
 
+  /**
+   * Constructs a copy of symmetric state whose cipher has no key yet.
+   *
+   * The handshake hash and chaining key are copied, cipher and hash
+   * objects are created anew so the copy doesn't share any state with
+   * the original.
+   *
+   * @param other The symmetric state to copy.
+   *
+   * @throws IllegalStateException The cipher of other state already has a key.
+   *
+   * @throws NoSuchAlgorithmException The cipher or hash algorithm is not supported.
+   */
+  public SymmetricState(SymmetricState other) throws NoSuchAlgorithmException {
+    if (other.cipher.hasKey()) {
+      throw new IllegalStateException("Cannot copy symmetric state after the cipher key was set");
+    }
+    name = other.name;
+    hashName = other.hashName;
+    cipher = Noise.createCipher(other.cipher.getCipherName());
+    hash = Noise.createHash(hashName);
+    ck = other.ck.clone();
+    h = other.h.clone();
+    prev_h = other.prev_h.clone();
+  }
+
   /**
    * Gets the name of the Noise protocol.
    *
@@ -0,0 +1,44 @@
+package org.homio.addon.esphome;
+
+import org.homio.addon.esphome.api.comm.ConnectLimiter;
+import org.homio.addon.esphome.entity.ESPHomeDeviceEntity;
+import org.homio.api.entity.BaseEntity;
+import org.homio.api.model.Icon;
+import org.homio.api.setting.SettingPluginSlider;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Seconds to wait for TCP connect to device before connect is treated as failed
+ */
+public class ESPHomeConnectTimeoutSetting implements SettingPluginSlider {
+
+  @Override
+  public Class<? extends BaseEntity> availableForEntity() {
+    return ESPHomeDeviceEntity.class;
+  }
+
+  @Override
+  public int order() {
+    return 33;
+  }
+
+  @Override
+  public @NotNull Icon getIcon() {
+    return new Icon("fas fa-hourglass-half");
+  }
+
+  @Override
+  public Integer getMin() {
+    return 1;
+  }
+
+  @Override
+  public Integer getMax() {
+    return 60;
+  }
+
+  @Override
+  public int defaultValue() {
+    return ConnectLimiter.DEFAULT_CONNECT_TIMEOUT_SEC;
+  }
+}
@@ -4,11 +4,14 @@ import com.fasterxml.jackson.databind.JsonNode;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
+import org.homio.addon.esphome.api.DeadbandFilter;
+import org.homio.addon.esphome.api.SensorNumberDeviceClass;
 import org.homio.addon.esphome.entity.ESPHomeDeviceEntity;
 import org.homio.addon.esphome.service.ESPHomeDeviceService;
 import org.homio.api.model.Icon;
 import org.homio.api.model.device.ConfigDeviceEndpoint;
 import org.homio.api.model.endpoint.BaseDeviceEndpoint;
+import org.homio.api.state.DecimalType;
 import org.homio.api.state.State;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -24,8 +27,17 @@ public class ESPHomeEndpoint extends BaseDeviceEndpoint<ESPHomeDeviceEntity> {
   @Nullable Function<JsonNode, State> dataReader;
   private @Setter
   @Nullable String statusClass;
+  private @Nullable String deviceClass;
+  /**
+   * Resolved from device class once, so numeric state updates don't look up device class per packet
+   */
+  private boolean numericState = true;
+  /**
+   * Smallest visible change of numeric state, 0 if endpoint isn't numeric sensor
+   */
+  private @Setter float resolution;
   private @Setter
-  @Nullable String deviceClass;
+  @Nullable DeadbandFilter stateFilter;
   private @Setter
   @Nullable String description;
 
@@ -70,6 +82,47 @@ public class ESPHomeEndpoint extends BaseDeviceEndpoint<ESPHomeDeviceEntity> {
     getOrCreateVariable();
   }
 
+  public void setDeviceClass(@Nullable String deviceClass) {
+    this.deviceClass = deviceClass;
+    this.numericState = true;
+    if (deviceClass != null) {
+      SensorNumberDeviceClass sensorDeviceClass = SensorNumberDeviceClass.fromDeviceClass(deviceClass);
+      if (sensorDeviceClass != null && !sensorDeviceClass.getItemType().startsWith("Number")) {
+        log.warn("Expected SensorNumberDeviceClass '{}' to be of item type Number[:Dimension]. Numeric states of {} are ignored",
+          deviceClass, getEndpointEntityID());
+        this.numericState = false;
+      }
+    }
+  }
+
+  /**
+   * @return state of numeric endpoint or null if value is missing or endpoint's device class isn't numeric
+   */
+  public @Nullable State toNumericState(float state, boolean missingState) {
+    if (!numericState || missingState || Float.isNaN(state)) {
+      return null;
+    }
+    return new DecimalType(state);
+  }
+
+  /**
+   * @return false if numeric state is the same as published one or within configured deadband
+   */
+  public boolean isNumericStateChanged(float state, boolean missingState) {
+    if (stateFilter == null) {
+      return true;
+    }
+    if (missingState || Float.isNaN(state)) {
+      stateFilter.reset();
+      return true;
+    }
+    return stateFilter.accept(state);
+  }
+
+  public boolean isStateChanged(@NotNull State state) {
+    return !state.equals(getValue());
+  }
+
   public void mqttUpdate(JsonNode payload) {
     if (dataReader != null) {
       State state = dataReader.apply(payload);
@@ -1,8 +1,13 @@
 package org.homio.addon.esphome;
 
+import com.southernstorm.noise.protocol.EphemeralKeyPool;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
+import org.homio.addon.esphome.api.comm.ConnectLimiter;
+import org.homio.addon.esphome.api.comm.ConnectionSelectorGroup;
+import org.homio.addon.esphome.api.comm.HashedWheelTimer;
+import org.homio.addon.esphome.api.comm.ReconnectScheduler;
 import org.homio.addon.esphome.entity.ESPHomeDeviceEntity;
 import org.homio.addon.esphome.entity.ESPHomeProjectEntity;
 import org.homio.api.AddonConfiguration;
@@ -12,6 +17,7 @@ import org.jetbrains.annotations.NotNull;
 import org.springframework.stereotype.Component;
 
 import java.net.URL;
+import java.security.NoSuchAlgorithmException;
 
 import static org.homio.api.util.Constants.PRIMARY_DEVICE;
 
@@ -31,6 +37,37 @@ public class ESPHomeEntrypoint implements AddonEntrypoint {
     context.ui().console().registerPluginName("esphome");
     context.setting().listenValue(ESPHomeCompactModeSetting.class, "esphome-compact-mode",
       (value) -> context.ui().updateItems(ESPHomeDeviceEntity.class));
+    ConnectionSelectorGroup.INSTANCE.setSelectorCount(context.setting().getValue(ESPHomeSelectorThreadsSetting.class));
+    context.setting().listenValue(ESPHomeSelectorThreadsSetting.class, "esphome-selector-threads",
+      ConnectionSelectorGroup.INSTANCE::setSelectorCount);
+    updateReadBufferPool();
+    context.setting().listenValue(ESPHomeReadBufferPoolSizeSetting.class, "esphome-read-buffer-pool",
+      (value) -> updateReadBufferPool());
+    context.setting().listenValue(ESPHomeReadBufferSegmentSetting.class, "esphome-read-buffer-segment",
+      (value) -> updateReadBufferPool());
+    ConnectLimiter connectLimiter = ConnectionSelectorGroup.INSTANCE.getConnectLimiter();
+    connectLimiter.setConnectTimeoutMillis(context.setting().getValue(ESPHomeConnectTimeoutSetting.class) * 1000L);
+    context.setting().listenValue(ESPHomeConnectTimeoutSetting.class, "esphome-connect-timeout",
+      (value) -> connectLimiter.setConnectTimeoutMillis(value * 1000L));
+    connectLimiter.setMaxConnects(context.setting().getValue(ESPHomeMaxPendingConnectsSetting.class));
+    context.setting().listenValue(ESPHomeMaxPendingConnectsSetting.class, "esphome-max-pending-connects",
+      connectLimiter::setMaxConnects);
+    ReconnectScheduler.INSTANCE.setMaxHandshakes(context.setting().getValue(ESPHomeMaxHandshakesSetting.class));
+    context.setting().listenValue(ESPHomeMaxHandshakesSetting.class, "esphome-max-handshakes",
+      ReconnectScheduler.INSTANCE::setMaxHandshakes);
+    startEphemeralKeyPool();
+  }
+
+  @Override
+  public void destroy() {
+    EphemeralKeyPool pool = EphemeralKeyPool.get("25519");
+    if (pool != null) {
+      log.info("ESPHome. Ephemeral key pool handed out {} keys, starved {} times", pool.getTaken(), pool.getStarvations());
+    }
+    EphemeralKeyPool.stopAll();
+    ReconnectScheduler.INSTANCE.shutdown();
+    HashedWheelTimer.KEEPALIVE.stop();
+    ConnectionSelectorGroup.INSTANCE.shutdown();
   }
 
   @SneakyThrows
@@ -38,6 +75,21 @@ public class ESPHomeEntrypoint implements AddonEntrypoint {
     return getResource("images/esphome.png");
   }
 
+  // ephemeral keys of Noise handshakes are generated in background instead of selector threads
+  private void startEphemeralKeyPool() {
+    try {
+      EphemeralKeyPool.start("25519", EphemeralKeyPool.DEFAULT_CAPACITY);
+    } catch (NoSuchAlgorithmException e) {
+      log.warn("ESPHome. Unable to start ephemeral key pool: {}", e.getMessage());
+    }
+  }
+
+  private void updateReadBufferPool() {
+    ConnectionSelectorGroup.INSTANCE.setReadBufferPool(
+      context.setting().getValue(ESPHomeReadBufferPoolSizeSetting.class),
+      context.setting().getValue(ESPHomeReadBufferSegmentSetting.class) * 1024);
+  }
+
   public void ensureEntityExists(Context context) {
     ESPHomeProjectEntity entity = context.db().get(ESPHomeProjectEntity.class, PRIMARY_DEVICE);
     if (entity == null) {
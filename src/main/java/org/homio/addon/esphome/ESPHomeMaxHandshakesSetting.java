@@ -0,0 +1,44 @@
+package org.homio.addon.esphome;
+
+import org.homio.addon.esphome.api.comm.ReconnectScheduler;
+import org.homio.addon.esphome.entity.ESPHomeDeviceEntity;
+import org.homio.api.entity.BaseEntity;
+import org.homio.api.model.Icon;
+import org.homio.api.setting.SettingPluginSlider;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Max number of devices doing native api handshake at once. Reconnects of other devices wait, recently online first
+ */
+public class ESPHomeMaxHandshakesSetting implements SettingPluginSlider {
+
+  @Override
+  public Class<? extends BaseEntity> availableForEntity() {
+    return ESPHomeDeviceEntity.class;
+  }
+
+  @Override
+  public int order() {
+    return 35;
+  }
+
+  @Override
+  public @NotNull Icon getIcon() {
+    return new Icon("fas fa-handshake");
+  }
+
+  @Override
+  public Integer getMin() {
+    return 1;
+  }
+
+  @Override
+  public Integer getMax() {
+    return 128;
+  }
+
+  @Override
+  public int defaultValue() {
+    return ReconnectScheduler.DEFAULT_MAX_HANDSHAKES;
+  }
+}
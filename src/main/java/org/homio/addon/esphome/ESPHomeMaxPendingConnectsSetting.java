@@ -0,0 +1,44 @@
+package org.homio.addon.esphome;
+
+import org.homio.addon.esphome.api.comm.ConnectLimiter;
+import org.homio.addon.esphome.entity.ESPHomeDeviceEntity;
+import org.homio.api.entity.BaseEntity;
+import org.homio.api.model.Icon;
+import org.homio.api.setting.SettingPluginSlider;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Max number of native api connects in progress at once. Other connects wait in queue
+ */
+public class ESPHomeMaxPendingConnectsSetting implements SettingPluginSlider {
+
+  @Override
+  public Class<? extends BaseEntity> availableForEntity() {
+    return ESPHomeDeviceEntity.class;
+  }
+
+  @Override
+  public int order() {
+    return 34;
+  }
+
+  @Override
+  public @NotNull Icon getIcon() {
+    return new Icon("fas fa-plug");
+  }
+
+  @Override
+  public Integer getMin() {
+    return 1;
+  }
+
+  @Override
+  public Integer getMax() {
+    return 256;
+  }
+
+  @Override
+  public int defaultValue() {
+    return ConnectLimiter.DEFAULT_MAX_CONNECTS;
+  }
+}
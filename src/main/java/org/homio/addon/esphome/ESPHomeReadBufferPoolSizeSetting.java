@@ -0,0 +1,44 @@
+package org.homio.addon.esphome;
+
+import org.homio.addon.esphome.api.comm.ReadBufferPool;
+import org.homio.addon.esphome.entity.ESPHomeDeviceEntity;
+import org.homio.api.entity.BaseEntity;
+import org.homio.api.model.Icon;
+import org.homio.api.setting.SettingPluginSlider;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Number of pooled read buffers kept by every selector thread
+ */
+public class ESPHomeReadBufferPoolSizeSetting implements SettingPluginSlider {
+
+  @Override
+  public Class<? extends BaseEntity> availableForEntity() {
+    return ESPHomeDeviceEntity.class;
+  }
+
+  @Override
+  public int order() {
+    return 31;
+  }
+
+  @Override
+  public @NotNull Icon getIcon() {
+    return new Icon("fas fa-layer-group");
+  }
+
+  @Override
+  public Integer getMin() {
+    return 1;
+  }
+
+  @Override
+  public Integer getMax() {
+    return 64;
+  }
+
+  @Override
+  public int defaultValue() {
+    return ReadBufferPool.DEFAULT_POOL_SIZE;
+  }
+}
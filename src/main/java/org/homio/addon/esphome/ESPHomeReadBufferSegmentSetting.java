@@ -0,0 +1,44 @@
+package org.homio.addon.esphome;
+
+import org.homio.addon.esphome.api.comm.ReadBufferPool;
+import org.homio.addon.esphome.entity.ESPHomeDeviceEntity;
+import org.homio.api.entity.BaseEntity;
+import org.homio.api.model.Icon;
+import org.homio.api.setting.SettingPluginSlider;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Size of pooled read buffer in KB
+ */
+public class ESPHomeReadBufferSegmentSetting implements SettingPluginSlider {
+
+  @Override
+  public Class<? extends BaseEntity> availableForEntity() {
+    return ESPHomeDeviceEntity.class;
+  }
+
+  @Override
+  public int order() {
+    return 32;
+  }
+
+  @Override
+  public @NotNull Icon getIcon() {
+    return new Icon("fas fa-memory");
+  }
+
+  @Override
+  public Integer getMin() {
+    return 1;
+  }
+
+  @Override
+  public Integer getMax() {
+    return 64;
+  }
+
+  @Override
+  public int defaultValue() {
+    return ReadBufferPool.DEFAULT_SEGMENT_SIZE / 1024;
+  }
+}
@@ -7,11 +7,20 @@ import java.io.IOException;
 
 public interface CommunicationListener {
 
-  void onPacket(GeneratedMessage message) throws ProtocolAPIError, IOException;
+  /**
+   * @param messageType message id from frame header, see {@link org.homio.addon.esphome.api.comm.MessageTypes}
+   */
+  void onPacket(int messageType, GeneratedMessage message) throws ProtocolAPIError, IOException;
 
   void onEndOfStream(String message);
 
   void onParseError(String message);
 
   void onConnect() throws ProtocolAPIError;
+
+  /**
+   * Outbound queue crossed high-water mark (writable = false) or drained below low-water mark (writable = true)
+   */
+  default void onWritabilityChanged(boolean writable) {
+  }
 }
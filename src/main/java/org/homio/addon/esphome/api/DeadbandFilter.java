@@ -0,0 +1,110 @@
+package org.homio.addon.esphome.api;
+
+/**
+ * Drops numeric states which don't differ enough from last published one. Value is published if it changed more
+ * than absolute deadband and more than percent deadband of last value, and not earlier than min interval after
+ * previous publish. Value held back only by min interval is kept as trailing value, and has to be published by
+ * {@link #takeTrailing()} once interval ends, as device won't repeat it while state is steady. Thread safe, values
+ * arrive on connection thread and trailing value is taken on timer thread.
+ */
+public class DeadbandFilter {
+
+  private final float deadband;
+  private final float deadbandPercent;
+  private final long minIntervalMillis;
+
+  private boolean published;
+  private float lastValue;
+  private long lastPublished;
+  private boolean trailing;
+  private float trailingValue;
+  private boolean trailingScheduled;
+
+  /**
+   * @param resolution        smallest visible change of value, i.e. 10^-accuracy_decimals for sensors
+   * @param deadbandSteps     absolute deadband in resolution steps. 0 drops changes invisible at resolution
+   * @param deadbandPercent   deadband in percents of last published value. 0 to disable
+   * @param minIntervalMillis min time between two published values. 0 to disable
+   */
+  public DeadbandFilter(float resolution, int deadbandSteps, int deadbandPercent, long minIntervalMillis) {
+    this.deadband = resolution * Math.max(0.5F, deadbandSteps);
+    this.deadbandPercent = deadbandPercent / 100F;
+    this.minIntervalMillis = minIntervalMillis;
+  }
+
+  /**
+   * @return true if value has to be published. Value is remembered as last published one
+   */
+  public synchronized boolean accept(float value) {
+    return accept(value, System.currentTimeMillis());
+  }
+
+  synchronized boolean accept(float value, long now) {
+    if (published) {
+      float delta = Math.abs(value - lastValue);
+      if (value == lastValue || delta < deadband || delta < Math.abs(lastValue) * deadbandPercent) {
+        // device is back within deadband of published value, held back value is superseded
+        trailing = false;
+        return false;
+      }
+      if (now - lastPublished < minIntervalMillis) {
+        trailing = true;
+        trailingValue = value;
+        return false;
+      }
+    }
+    publish(value, now);
+    return true;
+  }
+
+  /**
+   * Reserve publishing of trailing value. Called after {@link #accept(float)} returned false
+   *
+   * @return delay in milliseconds after which {@link #takeTrailing()} has to be called, or -1 if there is no trailing
+   * value or its publishing is already scheduled
+   */
+  public synchronized long scheduleTrailing() {
+    return scheduleTrailing(System.currentTimeMillis());
+  }
+
+  synchronized long scheduleTrailing(long now) {
+    if (!trailing || trailingScheduled) {
+      return -1;
+    }
+    trailingScheduled = true;
+    return Math.max(0, lastPublished + minIntervalMillis - now);
+  }
+
+  /**
+   * @return latest value held back by min interval, or NaN if it was superseded meanwhile or other value was
+   * published since it was scheduled and its interval hasn't ended yet, see {@link #scheduleTrailing()}. Returned
+   * value is remembered as last published one
+   */
+  public synchronized float takeTrailing() {
+    return takeTrailing(System.currentTimeMillis());
+  }
+
+  synchronized float takeTrailing(long now) {
+    trailingScheduled = false;
+    if (!trailing || now - lastPublished < minIntervalMillis) {
+      return Float.NaN;
+    }
+    publish(trailingValue, now);
+    return lastValue;
+  }
+
+  /**
+   * Forget last value, i.e. when device reported missing state or reconnected
+   */
+  public synchronized void reset() {
+    published = false;
+    trailing = false;
+  }
+
+  private void publish(float value, long now) {
+    published = true;
+    lastValue = value;
+    lastPublished = now;
+    trailing = false;
+  }
+}
@@ -4,26 +4,59 @@ import io.esphome.api.ClimateFanMode;
 import io.esphome.api.ClimateMode;
 import io.esphome.api.ClimatePreset;
 import io.esphome.api.ClimateSwingMode;
+import org.homio.api.state.StringType;
 
 public class EnumHelper {
 
+  // states of climate enums are shared instances indexed by enum ordinal, climate updates don't build strings
+  private static final StringType[] SWING_MODE_STATES = buildStates(ClimateSwingMode.values(), "CLIMATE_SWING");
+  private static final StringType[] FAN_MODE_STATES = buildStates(ClimateFanMode.values(), "CLIMATE_FAN");
+  private static final StringType[] MODE_STATES = buildStates(ClimateMode.values(), "CLIMATE_MODE");
+  private static final StringType[] PRESET_STATES = buildStates(ClimatePreset.values(), "CLIMATE_PRESET");
+
   public static String stripEnumPrefix(ClimateSwingMode mode) {
-    String toRemove = "CLIMATE_SWING";
-    return mode.toString().substring(toRemove.length() + 1);
+    return stripEnumPrefix(mode, "CLIMATE_SWING");
   }
 
   public static String stripEnumPrefix(ClimateFanMode mode) {
-    String toRemove = "CLIMATE_FAN";
-    return mode.toString().substring(toRemove.length() + 1);
+    return stripEnumPrefix(mode, "CLIMATE_FAN");
   }
 
   public static String stripEnumPrefix(ClimateMode climateMode) {
-    String toRemove = "CLIMATE_MODE";
-    return climateMode.toString().substring(toRemove.length() + 1);
+    return stripEnumPrefix(climateMode, "CLIMATE_MODE");
   }
 
   public static String stripEnumPrefix(ClimatePreset climatePreset) {
-    String toRemove = "CLIMATE_PRESET";
-    return climatePreset.toString().substring(toRemove.length() + 1);
+    return stripEnumPrefix(climatePreset, "CLIMATE_PRESET");
+  }
+
+  public static StringType toState(ClimateSwingMode mode) {
+    return SWING_MODE_STATES[mode.ordinal()];
+  }
+
+  public static StringType toState(ClimateFanMode mode) {
+    return FAN_MODE_STATES[mode.ordinal()];
+  }
+
+  public static StringType toState(ClimateMode climateMode) {
+    return MODE_STATES[climateMode.ordinal()];
+  }
+
+  public static StringType toState(ClimatePreset climatePreset) {
+    return PRESET_STATES[climatePreset.ordinal()];
+  }
+
+  private static String stripEnumPrefix(Enum<?> value, String toRemove) {
+    String name = value.toString();
+    // UNRECOGNIZED has no prefix
+    return name.startsWith(toRemove + "_") ? name.substring(toRemove.length() + 1) : name;
+  }
+
+  private static StringType[] buildStates(Enum<?>[] values, String toRemove) {
+    StringType[] states = new StringType[values.length];
+    for (Enum<?> value : values) {
+      states[value.ordinal()] = new StringType(stripEnumPrefix(value, toRemove));
+    }
+    return states;
   }
 }
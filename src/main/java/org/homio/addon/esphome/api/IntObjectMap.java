@@ -0,0 +1,118 @@
+package org.homio.addon.esphome.api;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map with primitive int keys and linear probing. Lookups don't box keys and don't allocate.
+ * Not thread safe.
+ */
+public class IntObjectMap<V> {
+
+  private static final int DEFAULT_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private int[] keys;
+  private Object[] values;
+  private int size;
+  private int mask;
+
+  public IntObjectMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public IntObjectMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+    allocate(capacity);
+  }
+
+  private IntObjectMap(IntObjectMap<V> source) {
+    keys = source.keys.clone();
+    values = source.values.clone();
+    size = source.size;
+    mask = source.mask;
+  }
+
+  @SuppressWarnings("unchecked")
+  public @Nullable V get(int key) {
+    int index = hash(key) & mask;
+    Object value;
+    while ((value = values[index]) != null) {
+      if (keys[index] == key) {
+        return (V) value;
+      }
+      index = (index + 1) & mask;
+    }
+    return null;
+  }
+
+  /**
+   * @return previous value or null
+   */
+  @SuppressWarnings("unchecked")
+  public @Nullable V put(int key, V value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Null values are not supported");
+    }
+    int index = hash(key) & mask;
+    Object current;
+    while ((current = values[index]) != null) {
+      if (keys[index] == key) {
+        values[index] = value;
+        return (V) current;
+      }
+      index = (index + 1) & mask;
+    }
+    keys[index] = key;
+    values[index] = value;
+    if (++size > values.length * LOAD_FACTOR) {
+      rehash(values.length << 1);
+    }
+    return null;
+  }
+
+  /**
+   * @return independent map with the same entries, i.e. to publish modified map without locking readers
+   */
+  public IntObjectMap<V> copy() {
+    return new IntObjectMap<>(this);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  // keys are esphome object ids (hash of object name), mix bits anyway to keep probe sequences short
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+  }
+
+  private void rehash(int capacity) {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != null) {
+        int index = hash(oldKeys[i]) & mask;
+        while (values[index] != null) {
+          index = (index + 1) & mask;
+        }
+        keys[index] = oldKeys[i];
+        values[index] = oldValues[i];
+      }
+    }
+  }
+}
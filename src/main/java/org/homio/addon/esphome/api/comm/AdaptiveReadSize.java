@@ -0,0 +1,73 @@
+package org.homio.addon.esphome.api.comm;
+
+/**
+ * Per-connection guess of next socket read size. Grows fast when reads fill whole buffer and shrinks slowly
+ * after two consecutive small reads (same approach as netty's AdaptiveRecvByteBufAllocator).
+ */
+public class AdaptiveReadSize {
+
+  public static final int MIN_SIZE = 64;
+  public static final int INITIAL_SIZE = 2048;
+  public static final int MAX_SIZE = 65536;
+
+  private static final int INDEX_INCREMENT = 4;
+  private static final int INDEX_DECREMENT = 1;
+  private static final int[] SIZE_TABLE = buildSizeTable();
+  private static final int MIN_INDEX = indexOf(MIN_SIZE);
+  private static final int MAX_INDEX = indexOf(MAX_SIZE);
+
+  private int index = indexOf(INITIAL_SIZE);
+  private int nextReadSize = SIZE_TABLE[index];
+  private boolean decreaseNow;
+
+  private static int[] buildSizeTable() {
+    int[] table = new int[32 + 12];
+    int i = 0;
+    // 16..512 step 16
+    for (int size = 16; size <= 512; size += 16) {
+      table[i++] = size;
+    }
+    // 1k..2m doubling
+    for (int size = 1024; i < table.length; size <<= 1) {
+      table[i++] = size;
+    }
+    return table;
+  }
+
+  private static int indexOf(int size) {
+    int low = 0;
+    int high = SIZE_TABLE.length - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (SIZE_TABLE[mid] < size) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  public int guess() {
+    return nextReadSize;
+  }
+
+  /**
+   * Record total bytes read during one readiness event
+   */
+  public void record(int actualReadBytes) {
+    if (actualReadBytes <= SIZE_TABLE[Math.max(0, index - INDEX_DECREMENT)]) {
+      if (decreaseNow) {
+        index = Math.max(index - INDEX_DECREMENT, MIN_INDEX);
+        nextReadSize = SIZE_TABLE[index];
+        decreaseNow = false;
+      } else {
+        decreaseNow = true;
+      }
+    } else if (actualReadBytes >= nextReadSize) {
+      index = Math.min(index + INDEX_INCREMENT, MAX_INDEX);
+      nextReadSize = SIZE_TABLE[index];
+      decreaseNow = false;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package org.homio.addon.esphome.api.comm;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Bounds number of TCP connects in flight over all selectors. Connects above the limit wait in FIFO order and start
+ * when running connect completes, fails or times out.
+ */
+public class ConnectLimiter {
+
+  public static final int DEFAULT_MAX_CONNECTS = 32;
+  public static final int DEFAULT_CONNECT_TIMEOUT_SEC = 10;
+
+  private final Queue<Runnable> waitingConnects = new ArrayDeque<>();
+  private int connectsInFlight;
+  private int maxConnects = DEFAULT_MAX_CONNECTS;
+  @Getter
+  @Setter
+  private volatile long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_SEC * 1000L;
+
+  /**
+   * Run connect now if limit allows, otherwise queue it
+   */
+  public void acquire(Runnable connect) {
+    synchronized (this) {
+      if (connectsInFlight >= maxConnects) {
+        waitingConnects.add(connect);
+        return;
+      }
+      connectsInFlight++;
+    }
+    connect.run();
+  }
+
+  /**
+   * Release slot of finished connect and pass it to the next waiting one
+   */
+  public void release() {
+    Runnable next;
+    synchronized (this) {
+      next = connectsInFlight <= maxConnects ? waitingConnects.poll() : null;
+      if (next == null) {
+        connectsInFlight = Math.max(0, connectsInFlight - 1);
+      }
+    }
+    if (next != null) {
+      next.run();
+    }
+  }
+
+  public void setMaxConnects(int maxConnects) {
+    List<Runnable> connects = new ArrayList<>();
+    synchronized (this) {
+      this.maxConnects = Math.max(1, maxConnects);
+      while (connectsInFlight < this.maxConnects && !waitingConnects.isEmpty()) {
+        connectsInFlight++;
+        connects.add(waitingConnects.poll());
+      }
+    }
+    connects.forEach(Runnable::run);
+  }
+
+  public synchronized int getConnectsInFlight() {
+    return connectsInFlight;
+  }
+
+  public synchronized void clear() {
+    waitingConnects.clear();
+    connectsInFlight = 0;
+  }
+}
@@ -1,31 +1,55 @@
 package org.homio.addon.esphome.api.comm;
 
+import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Single reactor thread with own {@link Selector}. Many connections share one selector, per-connection state
+ * is kept in the {@link SelectionKey} attachment ({@link StreamHandler}).
+ */
 @Log4j2
 public class ConnectionSelector {
 
-  public static final int READ_BUFFER_SIZE = 2048;
+  private static final int MAX_READS_PER_EVENT = 16;
 
   private final Selector selector;
+  private final String name;
+  // accessed only from selector thread
+  private final ReadBufferPool readBufferPool;
+  // registrations and other selector-bound operations are executed on selector thread to avoid blocking
+  // callers while selector is inside select()
+  private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+  @Getter
+  private final AtomicInteger connectionCount = new AtomicInteger();
+  private final ConnectLimiter connectLimiter;
+  // connects waiting for OP_CONNECT and their deadlines, accessed only from selector thread
+  private final Map<SelectionKey, Long> connectDeadlines = new HashMap<>();
 
-  private boolean keepRunning = true;
+  private volatile boolean keepRunning = true;
 
   private boolean selectorOpen;
-  private final Map<SocketChannel, StreamHandler> connectionMap = new ConcurrentHashMap<>();
 
-  public ConnectionSelector() throws IOException {
+  public ConnectionSelector(String name, ConnectLimiter connectLimiter, int bufferPoolSize, int bufferSegmentSize)
+    throws IOException {
+    this.name = name;
+    this.connectLimiter = connectLimiter;
+    this.readBufferPool = new ReadBufferPool(bufferPoolSize, bufferSegmentSize);
     selector = Selector.open();
     selectorOpen = true;
   }
@@ -33,10 +57,12 @@ public class ConnectionSelector {
   public void start() {
 
     Thread selectorThread = new Thread(() -> {
-      log.debug("Starting selector thread");
+      log.debug("Starting selector thread {}", name);
       while (keepRunning) {
         try {
           selector.select(1000);
+          runPendingTasks();
+          checkConnectTimeouts();
           // token representing the registration of a SelectableChannel with a Selector
           Set<SelectionKey> keys = selector.selectedKeys();
           log.trace("Selected keys: {}", keys.size());
@@ -58,7 +84,8 @@ public class ConnectionSelector {
         "Selector thread stopped. This should only happen on bundle stop, not during regular operation. See previous log statements for more "
         + "information.");
     });
-    selectorThread.setName("ESPHome Reader");
+    selectorThread.setName(name);
+    selectorThread.setDaemon(true);
     selectorThread.start();
   }
 
@@ -75,24 +102,166 @@ public class ConnectionSelector {
     }
   }
 
-  public void register(SocketChannel socketChannel, StreamHandler packetStreamReader) {
-    connectionMap.put(socketChannel, packetStreamReader);
+  public boolean isRunning() {
+    return keepRunning && selectorOpen;
+  }
+
+  /**
+   * Run task on selector thread
+   */
+  public void execute(Runnable task) {
+    pendingTasks.add(task);
+    selector.wakeup();
+  }
+
+  public void configureReadBufferPool(int poolSize, int segmentSize) {
+    execute(() -> readBufferPool.configure(poolSize, segmentSize));
+  }
+
+  /**
+   * Start non-blocking connect of channel. Handler is notified by {@link StreamHandler#onConnected()} when
+   * connection is established or by {@link StreamHandler#endOfStream(String)} if connect failed or timed out
+   */
+  public void connect(SocketChannel socketChannel, InetSocketAddress address, StreamHandler streamHandler) {
+    connectionCount.incrementAndGet();
+    connectLimiter.acquire(() -> execute(() -> startConnect(socketChannel, address, streamHandler)));
+  }
+
+  /**
+   * Enable or disable OP_WRITE notifications for channel
+   */
+  public void setWriteInterest(SocketChannel socketChannel, boolean enabled) {
+    execute(() -> {
+      SelectionKey key = socketChannel.keyFor(selector);
+      if (key != null && key.isValid()) {
+        int ops = key.interestOps();
+        key.interestOps(enabled ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+      }
+    });
+  }
+
+  public void unregister(SocketChannel socketChannel) {
+    connectionCount.decrementAndGet();
+    SelectionKey key = socketChannel.keyFor(selector);
+    if (key != null) {
+      key.cancel();
+    }
+
     try {
-      SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
-      key.attach(packetStreamReader);
-      selector.wakeup();
+      socketChannel.close();
     } catch (IOException e) {
-      log.warn("Error while registering channel", e);
+      log.warn("Error while closing channel", e);
     }
   }
 
-  public void unregister(SocketChannel socketChannel) {
-    connectionMap.remove(socketChannel);
+  private void startConnect(SocketChannel socketChannel, InetSocketAddress address, StreamHandler streamHandler) {
+    if (!socketChannel.isOpen()) {
+      // closed while waiting for connect slot
+      connectLimiter.release();
+      return;
+    }
+    // slot is released in finally unless pending connect takes it over, see releaseConnectSlot
+    boolean slotHeld = true;
+    try {
+      if (socketChannel.connect(address)) {
+        slotHeld = false;
+        connectLimiter.release();
+        socketChannel.register(selector, connectedInterestOps(streamHandler), streamHandler);
+        streamHandler.onConnected();
+      } else {
+        SelectionKey key = socketChannel.register(selector, SelectionKey.OP_CONNECT, streamHandler);
+        connectDeadlines.put(key, System.currentTimeMillis() + connectLimiter.getConnectTimeoutMillis());
+        slotHeld = false;
+      }
+    } catch (IOException e) {
+      log.debug("Error while connecting to {}", address, e);
+      closeQuietly(socketChannel);
+      streamHandler.endOfStream(e.getMessage());
+    } catch (Exception e) {
+      closeQuietly(socketChannel);
+      streamHandler.onParseError(e);
+    } finally {
+      if (slotHeld) {
+        connectLimiter.release();
+      }
+    }
+  }
 
+  private void finishConnect(SelectionKey key, StreamHandler streamHandler) {
+    SocketChannel socketChannel = (SocketChannel) key.channel();
+    try {
+      if (!socketChannel.finishConnect()) {
+        return;
+      }
+      releaseConnectSlot(key);
+      key.interestOps(connectedInterestOps(streamHandler));
+      streamHandler.onConnected();
+    } catch (IOException e) {
+      log.debug("Connect failed", e);
+      releaseConnectSlot(key);
+      key.cancel();
+      closeQuietly(socketChannel);
+      streamHandler.endOfStream(e.getMessage());
+    } catch (Exception e) {
+      releaseConnectSlot(key);
+      key.cancel();
+      closeQuietly(socketChannel);
+      streamHandler.onParseError(e);
+    }
+  }
+
+  // frames sent while connect was pending are queued, write them as soon as socket accepts data
+  private static int connectedInterestOps(StreamHandler streamHandler) {
+    return streamHandler.hasPendingWrites() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+  }
+
+  // release slot of pending connect once, no matter which of connect outcome paths gets here first
+  private void releaseConnectSlot(SelectionKey key) {
+    if (connectDeadlines.remove(key) != null) {
+      connectLimiter.release();
+    }
+  }
+
+  // release slots of connects closed meanwhile and fail connects which exceeded timeout
+  private void checkConnectTimeouts() {
+    if (connectDeadlines.isEmpty()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Iterator<Map.Entry<SelectionKey, Long>> iterator = connectDeadlines.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<SelectionKey, Long> entry = iterator.next();
+      SelectionKey key = entry.getKey();
+      if (!key.isValid()) {
+        iterator.remove();
+        connectLimiter.release();
+      } else if (now >= entry.getValue()) {
+        iterator.remove();
+        connectLimiter.release();
+        key.cancel();
+        closeQuietly((SocketChannel) key.channel());
+        ((StreamHandler) key.attachment()).endOfStream("Connect timed out after %d ms".formatted(
+          connectLimiter.getConnectTimeoutMillis()));
+      }
+    }
+  }
+
+  private static void closeQuietly(SocketChannel socketChannel) {
     try {
       socketChannel.close();
     } catch (IOException e) {
-      log.warn("Error while closing channel", e);
+      log.debug("Error while closing channel", e);
+    }
+  }
+
+  private void runPendingTasks() {
+    Runnable task;
+    while ((task = pendingTasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (Exception e) {
+        log.warn("Error while executing selector task", e);
+      }
     }
   }
 
@@ -101,40 +270,69 @@ public class ConnectionSelector {
     log.trace("Processing key {}", readyKey);
     // Tests whether this key's channel is ready to accept a new socket connection
     try {
-      if (readyKey.isReadable()) {
-        SocketChannel channel = (SocketChannel) readyKey.channel();
-        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
-        int read = channel.read(buffer);
-        if (read == -1) {
-          log.debug("End of stream, closing");
-          channel.keyFor(selector).cancel();
-          streamHandler.endOfStream("No more bytes available in connection stream");
-        } else {
-          if (read == READ_BUFFER_SIZE) {
-            log.warn(
-              "Socket read provided more data than buffer capacity of {}. Buffer capacity should be increased. Things still work, but performance is suboptimal. File a report on github to the developer",
-              READ_BUFFER_SIZE);
-          }
-          processReceivedData(streamHandler, buffer, channel);
-        }
-
+      if (readyKey.isValid() && readyKey.isConnectable()) {
+        finishConnect(readyKey, streamHandler);
+        return;
+      }
+      if (readyKey.isValid() && readyKey.isWritable() && streamHandler.flush() && readyKey.isValid()) {
+        // nothing left to write, stop OP_WRITE notifications until next partial write
+        readyKey.interestOps(readyKey.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+      if (readyKey.isValid() && readyKey.isReadable()) {
+        readAll(readyKey, streamHandler);
       } else {
         log.trace("Key not readable");
       }
+    } catch (CancelledKeyException e) {
+      log.trace("Key cancelled while processing");
     } catch (IOException e) {
       log.debug("Socket exception", e);
       streamHandler.endOfStream(e.getMessage());
     }
   }
 
-  private void processReceivedData(StreamHandler streamHandler, ByteBuffer buffer, SocketChannel channel)
+  // drain socket until it has no more data, bounded by MAX_READS_PER_EVENT to keep other connections responsive
+  private void readAll(SelectionKey readyKey, StreamHandler streamHandler) throws IOException {
+    SocketChannel channel = (SocketChannel) readyKey.channel();
+    AdaptiveReadSize readSize = streamHandler.getReadSize();
+    int readLimit = readSize.guess();
+    ByteBuffer buffer = readBufferPool.acquire(readLimit);
+    int totalRead = 0;
+    try {
+      for (int i = 0; i < MAX_READS_PER_EVENT; i++) {
+        int read = channel.read(buffer);
+        if (read == -1) {
+          log.debug("End of stream, closing");
+          readyKey.cancel();
+          streamHandler.endOfStream("No more bytes available in connection stream");
+          return;
+        }
+        if (read == 0) {
+          break;
+        }
+        totalRead += read;
+        buffer.flip();
+        if (!processReceivedData(streamHandler, buffer, channel)) {
+          return;
+        }
+        buffer.clear().limit(readLimit);
+      }
+    } finally {
+      readBufferPool.release(buffer);
+      readSize.record(totalRead);
+    }
+  }
+
+  private boolean processReceivedData(StreamHandler streamHandler, ByteBuffer buffer, SocketChannel channel)
     throws IOException {
     try {
       log.trace("Received data");
       streamHandler.processReceivedData(buffer);
+      return true;
     } catch (Exception e) {
       channel.close();
       streamHandler.onParseError(e);
+      return false;
     }
   }
 }
@@ -0,0 +1,98 @@
+package org.homio.addon.esphome.api.comm;
+
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Process-wide set of {@link ConnectionSelector}s shared by all native api devices.
+ * Each selector is one reader thread, connections are spread over selectors by load.
+ */
+@Log4j2
+public final class ConnectionSelectorGroup {
+
+  public static final int DEFAULT_SELECTOR_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+  public static final ConnectionSelectorGroup INSTANCE = new ConnectionSelectorGroup();
+
+  private final List<ConnectionSelector> selectors = new ArrayList<>();
+  @Getter
+  private final ConnectLimiter connectLimiter = new ConnectLimiter();
+  private int selectorIndex;
+  @Getter
+  private int selectorCount = DEFAULT_SELECTOR_COUNT;
+  private int bufferPoolSize = ReadBufferPool.DEFAULT_POOL_SIZE;
+  private int bufferSegmentSize = ReadBufferPool.DEFAULT_SEGMENT_SIZE;
+
+  private ConnectionSelectorGroup() {
+  }
+
+  /**
+   * Change number of selector threads. Applies to new connections, already registered connections stay
+   * on their selector until closed.
+   */
+  public synchronized void setSelectorCount(int selectorCount) {
+    this.selectorCount = Math.max(1, selectorCount);
+    log.info("ESPHome. Using {} selector thread(s) for native api connections", this.selectorCount);
+  }
+
+  /**
+   * Change size of per-selector read buffer pool and size of every buffer segment
+   */
+  public synchronized void setReadBufferPool(int poolSize, int segmentSize) {
+    this.bufferPoolSize = poolSize;
+    this.bufferSegmentSize = segmentSize;
+    for (ConnectionSelector selector : selectors) {
+      selector.configureReadBufferPool(poolSize, segmentSize);
+    }
+  }
+
+  /**
+   * Get least loaded selector. Selectors are created lazily.
+   */
+  @SneakyThrows
+  public synchronized ConnectionSelector next() {
+    releaseUnusedSelectors();
+    while (selectors.size() < selectorCount) {
+      ConnectionSelector selector = new ConnectionSelector("ESPHome Reader-" + selectorIndex++, connectLimiter,
+        bufferPoolSize, bufferSegmentSize);
+      selector.start();
+      selectors.add(selector);
+    }
+    ConnectionSelector result = selectors.get(0);
+    for (int i = 1; i < selectorCount; i++) {
+      ConnectionSelector selector = selectors.get(i);
+      if (selector.getConnectionCount().get() < result.getConnectionCount().get()) {
+        result = selector;
+      }
+    }
+    return result;
+  }
+
+  public synchronized void shutdown() {
+    for (ConnectionSelector selector : selectors) {
+      selector.stop();
+    }
+    selectors.clear();
+    connectLimiter.clear();
+  }
+
+  // stop selectors that died or exceed selectorCount and have no connections anymore
+  private void releaseUnusedSelectors() {
+    Iterator<ConnectionSelector> iterator = selectors.iterator();
+    int index = 0;
+    while (iterator.hasNext()) {
+      ConnectionSelector selector = iterator.next();
+      if (!selector.isRunning() || (index >= selectorCount && selector.getConnectionCount().get() == 0)) {
+        selector.stop();
+        iterator.remove();
+      } else {
+        index++;
+      }
+    }
+  }
+}
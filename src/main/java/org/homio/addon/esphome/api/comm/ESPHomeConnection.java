@@ -1,55 +1,203 @@
 package org.homio.addon.esphome.api.comm;
 
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 
+/**
+ * Socket of single device. Writes never block the caller: whatever socket doesn't accept immediately is copied into
+ * outbound queue which is drained by selector thread on OP_WRITE. Frames sent while connect is pending are queued
+ * too and written once selector finished connect.
+ */
 @Log4j2
 @RequiredArgsConstructor
 public class ESPHomeConnection {
 
+  /**
+   * Connection becomes not writable when queued bytes exceed this value
+   */
+  public static final int HIGH_WATER_MARK = 64 * 1024;
+  /**
+   * Connection becomes writable again when queued bytes drop below this value
+   */
+  public static final int LOW_WATER_MARK = 16 * 1024;
+  /**
+   * New frames are rejected when queue reached this size
+   */
+  public static final int MAX_QUEUED_BYTES = 256 * 1024;
+  // max number of queued frames passed to single gathering write
+  private static final int MAX_GATHER_BUFFERS = 64;
+
   private final ConnectionSelector connectionSelector;
   private final StreamHandler streamHandler;
   private final String hostname;
 
+  // guarded by this
+  private final ArrayDeque<ByteBuffer> outboundQueue = new ArrayDeque<>();
+  private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER_BUFFERS];
+  private int queuedBytes;
+  private boolean writable = true;
+  // last state reported to listener, accessed only from selector thread
+  private boolean notifiedWritable = true;
+
+  // guarded by this
   private SocketChannel socketChannel;
+  /**
+   * Nagle-like mode: frames sent within one selector tick are written with single syscall
+   */
+  @Setter
+  private volatile boolean coalesceWrites;
 
-  public synchronized void send(ByteBuffer buffer) throws ProtocolAPIError {
-    if (socketChannel != null) {
+  /**
+   * Write frames with single gathering write or queue them if socket can't accept them now. In coalescing mode
+   * frames are always queued and written together on next selector tick. Before connect is finished frames are only
+   * queued, their size is capped by {@link #ensureCapacity()} as any other queued frames. Buffers are fully consumed
+   * before return, so caller may reuse them.
+   */
+  public void send(ByteBuffer... frames) throws ProtocolAPIError {
+    synchronized (this) {
+      if (socketChannel == null) {
+        log.warn("Attempted to send data on a closed connection");
+        return;
+      }
+      if (!socketChannel.isConnected()) {
+        log.debug("[{}] Queue {} frame(s) until connection established", hostname, frames.length);
+        boolean queueEmpty = outboundQueue.isEmpty();
+        for (ByteBuffer frame : frames) {
+          if (frame.hasRemaining()) {
+            enqueue(frame);
+          }
+        }
+        if (queueEmpty && !outboundQueue.isEmpty()) {
+          // no-op while connect is pending, selector enables OP_WRITE itself when connect finishes
+          connectionSelector.setWriteInterest(socketChannel, true);
+        }
+        return;
+      }
       try {
-        while (buffer.hasRemaining()) {
-          log.trace("Writing data {} bytes", buffer.remaining());
-          socketChannel.write(buffer);
+        boolean queueEmpty = outboundQueue.isEmpty();
+        if (queueEmpty && !coalesceWrites) {
+          log.trace("Writing {} frame(s)", frames.length);
+          socketChannel.write(frames);
+        }
+        for (ByteBuffer frame : frames) {
+          if (frame.hasRemaining()) {
+            enqueue(frame);
+          }
+        }
+        if (queueEmpty && !outboundQueue.isEmpty()) {
+          if (coalesceWrites) {
+            connectionSelector.execute(this::flushCoalesced);
+          } else {
+            connectionSelector.setWriteInterest(socketChannel, true);
+          }
         }
-
       } catch (IOException e) {
         throw new ProtocolAPIError(String.format("Error sending message: %s ", e));
       }
-    } else {
-      log.warn("Attempted to send data on a closed connection");
     }
   }
 
-  public void connect(InetSocketAddress address) throws ProtocolAPIError {
-    try {
+  /**
+   * Check if new frame may be queued. Must be checked before frame is encoded as encrypted frames can't be
+   * dropped after encryption without breaking nonce sequence.
+   */
+  public synchronized void ensureCapacity() throws ProtocolAPIError {
+    if (queuedBytes >= MAX_QUEUED_BYTES) {
+      throw new ProtocolAPIError("[%s] Outbound queue is full (%d bytes)".formatted(hostname, queuedBytes));
+    }
+  }
 
-      socketChannel = SocketChannel.open(address);
-      socketChannel.configureBlocking(false);
-      connectionSelector.register(socketChannel, streamHandler);
+  public synchronized boolean hasPendingWrites() {
+    return !outboundQueue.isEmpty();
+  }
 
-      log.info("[{}] Opening socket to {} at port {}.", hostname, hostname, address.getPort());
+  public synchronized boolean isWritable() {
+    return writable;
+  }
+
+  /**
+   * Write queued frames. Called by selector thread when socket is writable.
+   *
+   * @return true if queue is empty
+   */
+  public boolean flush() throws IOException {
+    synchronized (this) {
+      if (socketChannel == null || !socketChannel.isConnected()) {
+        // frames queued before connect finished are written once selector enabled OP_WRITE for connected socket
+        return true;
+      }
+      while (!outboundQueue.isEmpty()) {
+        int count = 0;
+        for (ByteBuffer buffer : outboundQueue) {
+          gatherBuffers[count++] = buffer;
+          if (count == gatherBuffers.length) {
+            break;
+          }
+        }
+        queuedBytes -= (int) socketChannel.write(gatherBuffers, 0, count);
+        Arrays.fill(gatherBuffers, 0, count, null);
+        int written = 0;
+        while (!outboundQueue.isEmpty() && !outboundQueue.peek().hasRemaining()) {
+          outboundQueue.poll();
+          written++;
+        }
+        if (written < count) {
+          // socket buffer is full
+          break;
+        }
+      }
+      if (!writable && queuedBytes < LOW_WATER_MARK) {
+        writable = true;
+      }
+    }
+    notifyWritability();
+    return !hasPendingWrites();
+  }
+
+  // runs on selector thread, writes everything queued during current tick
+  private void flushCoalesced() {
+    try {
+      if (!flush()) {
+        synchronized (this) {
+          if (socketChannel != null) {
+            connectionSelector.setWriteInterest(socketChannel, true);
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.debug("[{}] Error writing coalesced frames", hostname, e);
+      streamHandler.endOfStream(e.getMessage());
+    }
+  }
 
+  public void connect(InetSocketAddress address) throws ProtocolAPIError {
+    try {
+      SocketChannel channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      // published under lock, so send() and selector thread see channel only after it's configured
+      synchronized (this) {
+        socketChannel = channel;
+      }
+      log.info("[{}] Opening socket to {} at port {}.", hostname, hostname, address.getPort());
+      connectionSelector.connect(channel, address, streamHandler);
     } catch (Exception e) {
       throw new ProtocolAPIError("Failed to connect to '" + hostname + "' port " + address.getPort(), e);
     }
   }
 
-  public void close() {
+  public synchronized void close() {
     log.info("[{}] Disconnecting socket.", hostname);
+    outboundQueue.clear();
+    queuedBytes = 0;
+    writable = true;
     try {
       if (socketChannel != null) {
         connectionSelector.unregister(socketChannel);
@@ -60,4 +208,25 @@ public class ESPHomeConnection {
       log.debug("[{}] Error closing connection", hostname, e);
     }
   }
+
+  // copy remaining bytes as caller reuses its buffer
+  private void enqueue(ByteBuffer buffer) {
+    int length = buffer.remaining();
+    outboundQueue.add(ByteBuffer.allocate(length).put(buffer).flip());
+    queuedBytes += length;
+    if (writable && queuedBytes > HIGH_WATER_MARK) {
+      writable = false;
+      log.debug("[{}] Outbound queue above high-water mark: {} bytes", hostname, queuedBytes);
+      connectionSelector.execute(this::notifyWritability);
+    }
+  }
+
+  // runs on selector thread only, so listener sees changes in order and only the current state
+  private void notifyWritability() {
+    boolean currentlyWritable = isWritable();
+    if (currentlyWritable != notifiedWritable) {
+      notifiedWritable = currentlyWritable;
+      streamHandler.writabilityChanged(currentlyWritable);
+    }
+  }
 }
@@ -1,10 +1,10 @@
 package org.homio.addon.esphome.api.comm;
 
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.GeneratedMessage;
 import com.southernstorm.noise.protocol.CipherStatePair;
 import com.southernstorm.noise.protocol.HandshakeState;
-import io.esphome.api.ApiOptions;
-import lombok.Getter;
+import com.southernstorm.noise.protocol.Noise;
 import lombok.extern.log4j.Log4j2;
 import org.homio.addon.esphome.api.CommunicationListener;
 
@@ -16,100 +16,150 @@ import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Log4j2
 public class EncryptedStreamHandler extends StreamHandler {
   private final static String NOISE_PROTOCOL = "Noise_NNpsk0_25519_ChaChaPoly_SHA256";
+  // "NoiseAPIInit" followed by 2 nulls
+  private static final byte[] PROLOGUE = Arrays.copyOf("NoiseAPIInit".getBytes(StandardCharsets.US_ASCII), 14);
+  // started handshake per device entity id. Reconnect copies it instead of decoding key, parsing protocol name and
+  // hashing prologue. Template is replaced when address or key of device changes
+  private static final Map<String, HandshakeTemplate> HANDSHAKE_TEMPLATES = new ConcurrentHashMap<>();
+  // preamble and 2 bytes of encrypted length
+  private static final int FRAME_HEADER_SIZE = 3;
+  // message type and message length inside encrypted payload
+  private static final int HEADER_SIZE = 4;
+  private static final int MAC_LENGTH = 16;
+  private static final int INITIAL_BUFFER_SIZE = 256;
+  private final String deviceId;
   private final String encryptionKeyBase64;
   private final String expectedServername;
-  @Getter
-  private final ESPHomeConnection connection;
   private HandshakeState client;
   private CipherStatePair cipherStatePair;
   private NoiseProtocolState state;
+  private byte[] sendBuffer = new byte[INITIAL_BUFFER_SIZE];
+  private ByteBuffer sendView = ByteBuffer.wrap(sendBuffer);
+  // accessed only from selector thread
+  private byte[] receiveBuffer = new byte[INITIAL_BUFFER_SIZE];
 
   public EncryptedStreamHandler(ConnectionSelector connectionSelector, CommunicationListener listener,
-                                String encryptionKeyBase64, String hostname) {
+                                String deviceId, String encryptionKeyBase64, String hostname) {
     super(listener);
+    this.deviceId = deviceId;
     this.encryptionKeyBase64 = encryptionKeyBase64;
     this.expectedServername = hostname;
     this.connection = new ESPHomeConnection(connectionSelector, this, hostname);
   }
 
-  private static short bytesToShort(final byte[] data) {
-    short value = (short) (data[0] & 0xff);
-    value <<= 8;
-    value |= data[1] & 0xff;
-    return value;
+  /**
+   * Forget cached handshake of device, i.e. when device is removed
+   */
+  public static void evictHandshakeTemplate(String deviceId) {
+    HandshakeTemplate template = HANDSHAKE_TEMPLATES.remove(deviceId);
+    if (template != null) {
+      template.handshake.destroy();
+    }
   }
 
   @Override
   public void connect(InetSocketAddress espHomeAddress) throws ProtocolException {
     try {
-      client = new HandshakeState(NOISE_PROTOCOL, HandshakeState.INITIATOR);
+      client = copyHandshakeTemplate();
+      state = NoiseProtocolState.HELLO;
+      connection.connect(espHomeAddress);
+    } catch (NoSuchAlgorithmException e) {
+      throw new ProtocolAPIError("Error initializing encryption", e);
+    }
+  }
 
-      // Set preshared key
-      byte[] key = Base64.getDecoder().decode(encryptionKeyBase64);
-      assert key.length == 32;
-      client.setPreSharedKey(key, 0, key.length);
+  // template is replaced, destroyed and copied inside compute, so other thread never copies destroyed template
+  private HandshakeState copyHandshakeTemplate() throws NoSuchAlgorithmException {
+    HandshakeState[] copy = new HandshakeState[1];
+    NoSuchAlgorithmException[] error = new NoSuchAlgorithmException[1];
+    HANDSHAKE_TEMPLATES.compute(deviceId, (id, template) -> {
+      HandshakeTemplate current = template;
+      try {
+        if (current == null || !current.matches(expectedServername, encryptionKeyBase64)) {
+          if (current != null) {
+            current.handshake.destroy();
+            current = null;
+          }
+          current = new HandshakeTemplate(expectedServername, encryptionKeyBase64, createHandshake());
+        }
+        copy[0] = current.handshake.copy();
+      } catch (NoSuchAlgorithmException e) {
+        error[0] = e;
+      }
+      return current;
+    });
+    if (error[0] != null) {
+      throw error[0];
+    }
+    return copy[0];
+  }
 
-      // Set prologue
-      byte[] prologue = "NoiseAPIInit".getBytes(StandardCharsets.US_ASCII);
-      byte[] prologuePadded = new byte[prologue.length + 2]; // 2 nulls at the end
-      System.arraycopy(prologue, 0, prologuePadded, 0, prologue.length);
-      client.setPrologue(prologuePadded, 0, prologuePadded.length);
+  private HandshakeState createHandshake() throws NoSuchAlgorithmException {
+    HandshakeState handshake = new HandshakeState(NOISE_PROTOCOL, HandshakeState.INITIATOR);
 
-      client.start();
+    // Set preshared key
+    byte[] key = Base64.getDecoder().decode(encryptionKeyBase64);
+    assert key.length == 32;
+    handshake.setPreSharedKey(key, 0, key.length);
+    Arrays.fill(key, (byte) 0);
 
-      connection.connect(espHomeAddress);
-      state = NoiseProtocolState.HELLO;
+    // Set prologue
+    handshake.setPrologue(PROLOGUE, 0, PROLOGUE.length);
 
-      connection.send(createFrame(new byte[0]));
+    handshake.start();
+    return handshake;
+  }
 
-    } catch (NoSuchAlgorithmException e) {
-      throw new ProtocolAPIError("Error initializing encryption", e);
-    }
+  @Override
+  protected void onConnected() throws ProtocolException {
+    connection.send(createFrame(new byte[0]));
   }
 
   @Override
-  protected void headerReceived(byte[] headerData) throws ProtocolException {
-    try {
-      if (headerData[0] != PROTOCOL_ENCRYPTED) {
-        if (headerData[0] == PROTOCOL_PLAINTEXT) {
-          handleAndClose(new RequiresEncryptionAPIError(DEVICE_REQUIRES_PLAINTEXT));
-          return;
-        } else {
-          handleAndClose(new ProtocolAPIError(INVALID_PROTOCOL_PREAMBLE));
-          return;
-        }
+  protected boolean decodeFrame(ByteBuffer buffer) throws ProtocolException {
+    int position = buffer.position();
+    byte preamble = buffer.get(position);
+    if (preamble != PROTOCOL_ENCRYPTED) {
+      if (preamble == PROTOCOL_PLAINTEXT) {
+        handleAndClose(new RequiresEncryptionAPIError(DEVICE_REQUIRES_PLAINTEXT));
       }
+      handleAndClose(new ProtocolAPIError(INVALID_PROTOCOL_PREAMBLE));
+    }
+    if (buffer.remaining() < FRAME_HEADER_SIZE) {
+      return false;
+    }
 
-      // Unwrap outer frame
-      int protoPacketLength = bytesToShort(Arrays.copyOfRange(headerData, 1, 3));
-      if (internalBuffer.remaining() >= protoPacketLength) {
-        byte[] packetData = readBytes(protoPacketLength);
-
-        switch (state) {
-          case HELLO:
-            handleHello(packetData);
-            break;
-          case HANDSHAKE:
-            handleHandshake(packetData);
-            break;
-          case READY:
-            handleReady(packetData);
-            break;
-        }
+    // Unwrap outer frame
+    int protoPacketLength = buffer.getShort(position + 1) & 0xFFFF;
+    if (buffer.remaining() - FRAME_HEADER_SIZE < protoPacketLength) {
+      return false;
+    }
+    int payloadOffset = position + FRAME_HEADER_SIZE;
+    buffer.position(payloadOffset + protoPacketLength);
 
-        internalBuffer.compact();
-        processBuffer();
+    if (state == NoiseProtocolState.READY) {
+      handleReady(buffer, payloadOffset, protoPacketLength);
+      return true;
+    }
+    // handshake messages arrive once per connection
+    byte[] packetData = new byte[protoPacketLength];
+    buffer.get(payloadOffset, packetData);
+    try {
+      if (state == NoiseProtocolState.HELLO) {
+        handleHello(packetData);
       } else {
-        internalBuffer.position(internalBuffer.limit());
-        internalBuffer.limit(internalBuffer.capacity());
+        handleHandshake(packetData);
       }
     } catch (ShortBufferException e) {
       throw new ProtocolAPIError(e.getMessage());
     }
+    return true;
   }
 
   private void handleHello(byte[] packetData) throws ProtocolAPIError, ShortBufferException {
@@ -167,54 +217,82 @@ public class EncryptedStreamHandler extends StreamHandler {
         listener.onConnect();
       } catch (ShortBufferException | BadPaddingException e) {
         throw new ProtocolAPIError(e.getMessage());
+      } catch (IllegalStateException e) {
+        // i.e. key agreement with invalid ephemeral key of device
+        throw new ProtocolAPIError("Handshake failed: " + e.getMessage());
       }
     }
   }
 
-  private void handleReady(byte[] packetData) {
+  // ciphertext is copied into receive buffer and decrypted in place there
+  private void handleReady(ByteBuffer buffer, int offset, int length) {
     try {
-      byte[] decrypted = decryptPacket(packetData);
-      int messageType = (decrypted[0] << 8) | decrypted[1];
-      byte[] messageData = Arrays.copyOfRange(decrypted, 4, decrypted.length);
-      decodeProtoMessage(messageType, messageData);
+      if (receiveBuffer.length < length) {
+        receiveBuffer = new byte[Math.max(length, receiveBuffer.length * 2)];
+      }
+      buffer.get(offset, receiveBuffer, 0, length);
+      int decryptedLength = cipherStatePair.getReceiver().decryptWithAd(null, receiveBuffer, 0, receiveBuffer, 0, length);
+      int messageType = (receiveBuffer[0] & 0xFF) << 8 | receiveBuffer[1] & 0xFF;
+      decodeProtoMessage(messageType, receiveBuffer, HEADER_SIZE, decryptedLength - HEADER_SIZE);
     } catch (Exception e) {
       listener.onParseError(PACKET_ERROR);
     }
   }
 
+  /**
+   * Frame is built in reusable send buffer: 3 bytes of outer frame, 4 bytes of message type and length, message
+   * and MAC. Message is encrypted in place, so returned buffer is valid only until next call.
+   */
   public ByteBuffer encodeFrame(GeneratedMessage message) throws ProtocolAPIError {
-    try {
-      byte[] protoBytes = message.toByteArray();
-      int type = message.getDescriptorForType().getOptions().getExtension(ApiOptions.id);
-      byte[] typeAndLength = new byte[]{(byte) (type >> 8 & 0xFF), (byte) (type & 0xFF),
-        (byte) (protoBytes.length >> 8 & 0xFF), (byte) (protoBytes.length & 0xFF)};
-      byte[] frameUnencrypted = concatArrays(typeAndLength, protoBytes);
-      byte[] frameEncrypted = encryptPacket(frameUnencrypted);
+    return encodeFrame(message, true);
+  }
 
-      return createFrame(frameEncrypted);
+  @Override
+  ByteBuffer encodeFrame(GeneratedMessage message, boolean reuseBuffer) throws ProtocolAPIError {
+    try {
+      int messageLength = message.getSerializedSize();
+      int plainLength = HEADER_SIZE + messageLength;
+      int frameLength = plainLength + MAC_LENGTH;
+      if (frameLength > Noise.MAX_PACKET_LEN) {
+        throw new ProtocolAPIError("Message too long: " + messageLength);
+      }
+      byte[] frame;
+      if (reuseBuffer) {
+        ensureSendCapacity(FRAME_HEADER_SIZE + frameLength);
+        frame = sendBuffer;
+      } else {
+        frame = new byte[FRAME_HEADER_SIZE + frameLength];
+      }
 
+      int type = MessageTypes.getId(message);
+      frame[3] = (byte) (type >> 8);
+      frame[4] = (byte) type;
+      frame[5] = (byte) (messageLength >> 8);
+      frame[6] = (byte) messageLength;
+      CodedOutputStream output = CodedOutputStream.newInstance(frame, FRAME_HEADER_SIZE + HEADER_SIZE, messageLength);
+      message.writeTo(output);
+      output.checkNoSpaceLeft();
+
+      int cipherTextLength = cipherStatePair.getSender().encryptWithAd(null, frame, FRAME_HEADER_SIZE,
+        frame, FRAME_HEADER_SIZE, plainLength);
+      frame[0] = PROTOCOL_ENCRYPTED;
+      frame[1] = (byte) (cipherTextLength >> 8);
+      frame[2] = (byte) cipherTextLength;
+      ByteBuffer view = reuseBuffer ? sendView : ByteBuffer.wrap(frame);
+      view.limit(FRAME_HEADER_SIZE + cipherTextLength).position(0);
+      return view;
+    } catch (ProtocolAPIError e) {
+      throw e;
     } catch (Exception e) {
       throw new ProtocolAPIError(e.getMessage());
     }
   }
 
-  private byte[] encryptPacket(byte[] msg) throws Exception {
-    byte[] encrypted = new byte[msg.length + 128];
-    final int cipherTextLength = cipherStatePair.getSender().encryptWithAd(null, msg, 0, encrypted, 0, msg.length);
-
-    byte[] result = new byte[cipherTextLength];
-    System.arraycopy(encrypted, 0, result, 0, cipherTextLength);
-    return result;
-  }
-
-  private byte[] decryptPacket(byte[] msg) throws Exception {
-    byte[] decrypted = new byte[msg.length + 128];
-    final int cipherTextLength = cipherStatePair.getReceiver().decryptWithAd(null, msg, 0, decrypted, 0,
-      msg.length);
-
-    byte[] result = new byte[cipherTextLength];
-    System.arraycopy(decrypted, 0, result, 0, cipherTextLength);
-    return result;
+  private void ensureSendCapacity(int length) {
+    if (sendBuffer.length < length) {
+      sendBuffer = new byte[Math.max(length, sendBuffer.length * 2)];
+      sendView = ByteBuffer.wrap(sendBuffer);
+    }
   }
 
   private enum NoiseProtocolState {
@@ -222,4 +300,11 @@ public class EncryptedStreamHandler extends StreamHandler {
     HANDSHAKE,
     READY
   }
+
+  private record HandshakeTemplate(String hostname, String encryptionKeyBase64, HandshakeState handshake) {
+
+    boolean matches(String hostname, String encryptionKeyBase64) {
+      return this.hostname.equals(hostname) && this.encryptionKeyBase64.equals(encryptionKeyBase64);
+    }
+  }
 }
@@ -0,0 +1,91 @@
+package org.homio.addon.esphome.api.comm;
+
+import com.southernstorm.noise.protocol.Noise;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Growable buffer for frame reassembly. Bytes are appended at the tail and consumed from the head; unread bytes
+ * are moved to the start of the array only when the tail runs out of space, and buffer is rewound for free
+ * whenever everything was consumed.
+ */
+public class FrameBuffer {
+
+  public static final int INITIAL_CAPACITY = 1024;
+  // biggest frame plus one socket read that may carry the beginning of the next frame
+  public static final int MAX_CAPACITY = Noise.MAX_PACKET_LEN + 16 + AdaptiveReadSize.MAX_SIZE;
+
+  private byte[] data = new byte[INITIAL_CAPACITY];
+  private ByteBuffer view = ByteBuffer.wrap(data);
+  private int readIndex;
+  private int writeIndex;
+  /**
+   * Max number of bytes buffered at once since creation
+   */
+  @Getter
+  private int highWaterMark;
+
+  public int readableBytes() {
+    return writeIndex - readIndex;
+  }
+
+  public boolean isEmpty() {
+    return readIndex == writeIndex;
+  }
+
+  public void write(ByteBuffer src) throws ProtocolAPIError {
+    int length = src.remaining();
+    ensureWritable(length);
+    src.get(data, writeIndex, length);
+    writeIndex += length;
+    highWaterMark = Math.max(highWaterMark, readableBytes());
+  }
+
+  /**
+   * Get buffer over unread bytes. Parser advances position of returned buffer and must report it back with
+   * {@link #consumeUntil(int)}. Returned buffer is reused between calls.
+   */
+  public ByteBuffer readView() {
+    view.limit(writeIndex).position(readIndex);
+    return view;
+  }
+
+  public void consumeUntil(int position) {
+    readIndex = position;
+    if (readIndex == writeIndex) {
+      readIndex = writeIndex = 0;
+    }
+  }
+
+  public void clear() {
+    readIndex = writeIndex = 0;
+  }
+
+  private void ensureWritable(int length) throws ProtocolAPIError {
+    if (data.length - writeIndex >= length) {
+      return;
+    }
+    int readable = readableBytes();
+    int required = readable + length;
+    if (required > MAX_CAPACITY) {
+      throw new ProtocolAPIError("Frame buffer overflow. Required %d bytes, max %d".formatted(required, MAX_CAPACITY));
+    }
+    byte[] target = data;
+    if (required > data.length) {
+      int capacity = data.length;
+      while (capacity < required) {
+        capacity <<= 1;
+      }
+      target = new byte[Math.min(capacity, MAX_CAPACITY)];
+    }
+    // keep unread bytes only
+    System.arraycopy(data, readIndex, target, 0, readable);
+    if (target != data) {
+      data = target;
+      view = ByteBuffer.wrap(data);
+    }
+    readIndex = 0;
+    writeIndex = readable;
+  }
+}
@@ -0,0 +1,196 @@
+package org.homio.addon.esphome.api.comm;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timer for many cheap periodic and one-shot tasks with coarse precision. Tasks are hashed into wheel buckets by
+ * their deadline tick, single thread wakes up once per tick and runs all tasks of current bucket, so cost doesn't
+ * depend on number of scheduled tasks but on number of due ones.
+ */
+@Log4j2
+public final class HashedWheelTimer {
+
+  /**
+   * Shared timer driving keepalive of all native api connections and delayed publishing of throttled states
+   */
+  public static final HashedWheelTimer KEEPALIVE = new HashedWheelTimer("ESPHome Keepalive", 1000);
+
+  private static final int WHEEL_SIZE = 64;
+  private static final int MASK = WHEEL_SIZE - 1;
+
+  private final String name;
+  private final long tickMillis;
+  private final List<Timeout>[] wheel;
+  // new timeouts are moved into wheel by worker thread at the start of tick
+  private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+  // wheel, expired and tick are accessed only from worker thread, which resets them when it ends
+  private final List<Timeout> expired = new ArrayList<>();
+  private long tick;
+  private volatile Thread worker;
+  private volatile boolean running;
+
+  @SuppressWarnings("unchecked")
+  public HashedWheelTimer(String name, long tickMillis) {
+    this.name = name;
+    this.tickMillis = tickMillis;
+    this.wheel = new List[WHEEL_SIZE];
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel[i] = new ArrayList<>();
+    }
+  }
+
+  /**
+   * Run task every period, first time after one period. Task runs on timer thread and must not block.
+   */
+  public Timeout scheduleAtFixedRate(Runnable task, long period, TimeUnit unit) {
+    long periodTicks = Math.max(1, unit.toMillis(period) / tickMillis);
+    Timeout timeout = new Timeout(task, periodTicks, true);
+    pendingTimeouts.add(timeout);
+    ensureStarted();
+    return timeout;
+  }
+
+  /**
+   * Run task once, not earlier than after delay. Task runs on timer thread and must not block.
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    long delayTicks = Math.max(1, (unit.toMillis(delay) + tickMillis - 1) / tickMillis);
+    Timeout timeout = new Timeout(task, delayTicks, false);
+    pendingTimeouts.add(timeout);
+    ensureStarted();
+    return timeout;
+  }
+
+  /**
+   * Stop worker and drop all scheduled timeouts. Waits until worker ended, so next schedule call starts timer again
+   * from clean state. Must not be called from timer task
+   */
+  public synchronized void stop() {
+    running = false;
+    Thread stoppedWorker = worker;
+    if (stoppedWorker != null) {
+      stoppedWorker.interrupt();
+      if (stoppedWorker != Thread.currentThread()) {
+        try {
+          stoppedWorker.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      worker = null;
+    }
+    pendingTimeouts.clear();
+  }
+
+  private void ensureStarted() {
+    // task scheduled from timer task, worker is running. Also avoids blocking worker while stop() waits for it
+    if (Thread.currentThread() == worker) {
+      return;
+    }
+    startWorker();
+  }
+
+  private synchronized void startWorker() {
+    if (worker == null) {
+      running = true;
+      worker = new Thread(this::run, name);
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
+  private void run() {
+    long startTime = System.nanoTime();
+    long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    while (running) {
+      long sleepNanos = startTime + (tick + 1) * tickNanos - System.nanoTime();
+      if (sleepNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
+      tick++;
+      transferPendingTimeouts();
+      expireTimeouts();
+    }
+    for (List<Timeout> bucket : wheel) {
+      bucket.clear();
+    }
+    expired.clear();
+    tick = 0;
+    log.debug("Timer thread {} stopped", name);
+  }
+
+  private void transferPendingTimeouts() {
+    Timeout timeout;
+    while ((timeout = pendingTimeouts.poll()) != null) {
+      if (!timeout.cancelled) {
+        timeout.deadlineTick = tick + timeout.periodTicks;
+        wheel[(int) (timeout.deadlineTick & MASK)].add(timeout);
+      }
+    }
+  }
+
+  private void expireTimeouts() {
+    Iterator<Timeout> iterator = wheel[(int) (tick & MASK)].iterator();
+    while (iterator.hasNext()) {
+      Timeout timeout = iterator.next();
+      if (timeout.cancelled) {
+        iterator.remove();
+      } else if (timeout.deadlineTick <= tick) {
+        iterator.remove();
+        expired.add(timeout);
+      }
+    }
+    for (Timeout timeout : expired) {
+      try {
+        timeout.task.run();
+      } catch (Exception e) {
+        log.warn("Error while running timer task", e);
+      }
+      // re-added after iteration so period multiple of wheel size doesn't land in bucket being processed
+      if (timeout.periodic && !timeout.cancelled) {
+        timeout.deadlineTick = tick + timeout.periodTicks;
+        wheel[(int) (timeout.deadlineTick & MASK)].add(timeout);
+      }
+    }
+    expired.clear();
+  }
+
+  public static final class Timeout {
+
+    private final Runnable task;
+    private final long periodTicks;
+    private final boolean periodic;
+    private long deadlineTick;
+    private volatile boolean cancelled;
+
+    private Timeout(Runnable task, long periodTicks, boolean periodic) {
+      this.task = task;
+      this.periodTicks = periodTicks;
+      this.periodic = periodic;
+    }
+
+    /**
+     * Stop timeout. Task is removed from wheel when its bucket is processed next time
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public static void cancel(Timeout timeout) {
+      if (timeout != null) {
+        timeout.cancel();
+      }
+    }
+  }
+}
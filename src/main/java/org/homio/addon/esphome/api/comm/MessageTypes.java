@@ -0,0 +1,188 @@
+package org.homio.addon.esphome.api.comm;
+
+import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.Internal;
+import com.google.protobuf.Parser;
+import io.esphome.api.ApiOptions;
+import io.esphome.api.BinarySensorStateResponse;
+import io.esphome.api.BluetoothConnectionsFreeResponse;
+import io.esphome.api.BluetoothDeviceClearCacheResponse;
+import io.esphome.api.BluetoothDeviceConnectionResponse;
+import io.esphome.api.BluetoothDevicePairingResponse;
+import io.esphome.api.BluetoothDeviceUnpairingResponse;
+import io.esphome.api.BluetoothGATTErrorResponse;
+import io.esphome.api.BluetoothGATTGetServicesDoneResponse;
+import io.esphome.api.BluetoothGATTGetServicesResponse;
+import io.esphome.api.BluetoothGATTNotifyDataResponse;
+import io.esphome.api.BluetoothGATTNotifyResponse;
+import io.esphome.api.BluetoothGATTReadResponse;
+import io.esphome.api.BluetoothGATTWriteResponse;
+import io.esphome.api.BluetoothLEAdvertisementResponse;
+import io.esphome.api.CameraImageResponse;
+import io.esphome.api.ClimateStateResponse;
+import io.esphome.api.ConnectResponse;
+import io.esphome.api.CoverStateResponse;
+import io.esphome.api.DeviceInfoResponse;
+import io.esphome.api.DisconnectRequest;
+import io.esphome.api.DisconnectResponse;
+import io.esphome.api.FanStateResponse;
+import io.esphome.api.GetTimeRequest;
+import io.esphome.api.GetTimeResponse;
+import io.esphome.api.HelloResponse;
+import io.esphome.api.HomeassistantServiceResponse;
+import io.esphome.api.LightStateResponse;
+import io.esphome.api.ListEntitiesBinarySensorResponse;
+import io.esphome.api.ListEntitiesButtonResponse;
+import io.esphome.api.ListEntitiesCameraResponse;
+import io.esphome.api.ListEntitiesClimateResponse;
+import io.esphome.api.ListEntitiesCoverResponse;
+import io.esphome.api.ListEntitiesDoneResponse;
+import io.esphome.api.ListEntitiesFanResponse;
+import io.esphome.api.ListEntitiesLightResponse;
+import io.esphome.api.ListEntitiesLockResponse;
+import io.esphome.api.ListEntitiesMediaPlayerResponse;
+import io.esphome.api.ListEntitiesNumberResponse;
+import io.esphome.api.ListEntitiesSelectResponse;
+import io.esphome.api.ListEntitiesSensorResponse;
+import io.esphome.api.ListEntitiesServicesResponse;
+import io.esphome.api.ListEntitiesSirenResponse;
+import io.esphome.api.ListEntitiesSwitchResponse;
+import io.esphome.api.ListEntitiesTextSensorResponse;
+import io.esphome.api.LockStateResponse;
+import io.esphome.api.MediaPlayerStateResponse;
+import io.esphome.api.NumberStateResponse;
+import io.esphome.api.PingRequest;
+import io.esphome.api.PingResponse;
+import io.esphome.api.SelectStateResponse;
+import io.esphome.api.SensorStateResponse;
+import io.esphome.api.SirenStateResponse;
+import io.esphome.api.SubscribeHomeAssistantStateResponse;
+import io.esphome.api.SubscribeLogsResponse;
+import io.esphome.api.SwitchStateResponse;
+import io.esphome.api.TextSensorStateResponse;
+import io.esphome.api.VoiceAssistantRequest;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Message id lookup in both directions. Parsers are indexed by message id taken from the (id) option of generated
+ * messages, and created once per JVM. Only messages which may be sent by device (SOURCE_SERVER/SOURCE_BOTH in
+ * api.proto) are registered.
+ */
+public final class MessageTypes {
+
+  // ids of messages handled by connection itself, checked against api.proto by MessageTypesTest
+  public static final int HELLO_RESPONSE = 2;
+  public static final int CONNECT_RESPONSE = 4;
+  public static final int DISCONNECT_REQUEST = 5;
+  public static final int DISCONNECT_RESPONSE = 6;
+  public static final int PING_REQUEST = 7;
+  public static final int PING_RESPONSE = 8;
+  public static final int DEVICE_INFO_RESPONSE = 10;
+  public static final int LIST_ENTITIES_DONE_RESPONSE = 19;
+
+  private static final ClassValue<Integer> MESSAGE_IDS = new ClassValue<>() {
+    @Override
+    protected Integer computeValue(Class<?> type) {
+      GeneratedMessage message = Internal.getDefaultInstance(type.asSubclass(GeneratedMessage.class));
+      return message.getDescriptorForType().getOptions().getExtension(ApiOptions.id);
+    }
+  };
+
+  private static final Parser<?>[] PARSERS = createParsers(
+    HelloResponse.getDefaultInstance(),
+    ConnectResponse.getDefaultInstance(),
+    DisconnectRequest.getDefaultInstance(),
+    DisconnectResponse.getDefaultInstance(),
+    PingRequest.getDefaultInstance(),
+    PingResponse.getDefaultInstance(),
+    DeviceInfoResponse.getDefaultInstance(),
+    ListEntitiesBinarySensorResponse.getDefaultInstance(),
+    ListEntitiesCoverResponse.getDefaultInstance(),
+    ListEntitiesFanResponse.getDefaultInstance(),
+    ListEntitiesLightResponse.getDefaultInstance(),
+    ListEntitiesSensorResponse.getDefaultInstance(),
+    ListEntitiesSwitchResponse.getDefaultInstance(),
+    ListEntitiesTextSensorResponse.getDefaultInstance(),
+    ListEntitiesDoneResponse.getDefaultInstance(),
+    BinarySensorStateResponse.getDefaultInstance(),
+    CoverStateResponse.getDefaultInstance(),
+    FanStateResponse.getDefaultInstance(),
+    LightStateResponse.getDefaultInstance(),
+    SensorStateResponse.getDefaultInstance(),
+    SwitchStateResponse.getDefaultInstance(),
+    TextSensorStateResponse.getDefaultInstance(),
+    SubscribeLogsResponse.getDefaultInstance(),
+    HomeassistantServiceResponse.getDefaultInstance(),
+    GetTimeRequest.getDefaultInstance(),
+    GetTimeResponse.getDefaultInstance(),
+    SubscribeHomeAssistantStateResponse.getDefaultInstance(),
+    ListEntitiesServicesResponse.getDefaultInstance(),
+    ListEntitiesCameraResponse.getDefaultInstance(),
+    CameraImageResponse.getDefaultInstance(),
+    ListEntitiesClimateResponse.getDefaultInstance(),
+    ClimateStateResponse.getDefaultInstance(),
+    ListEntitiesNumberResponse.getDefaultInstance(),
+    NumberStateResponse.getDefaultInstance(),
+    ListEntitiesSelectResponse.getDefaultInstance(),
+    SelectStateResponse.getDefaultInstance(),
+    ListEntitiesSirenResponse.getDefaultInstance(),
+    SirenStateResponse.getDefaultInstance(),
+    ListEntitiesLockResponse.getDefaultInstance(),
+    LockStateResponse.getDefaultInstance(),
+    ListEntitiesButtonResponse.getDefaultInstance(),
+    ListEntitiesMediaPlayerResponse.getDefaultInstance(),
+    MediaPlayerStateResponse.getDefaultInstance(),
+    BluetoothLEAdvertisementResponse.getDefaultInstance(),
+    BluetoothDeviceConnectionResponse.getDefaultInstance(),
+    BluetoothGATTGetServicesResponse.getDefaultInstance(),
+    BluetoothGATTGetServicesDoneResponse.getDefaultInstance(),
+    BluetoothGATTReadResponse.getDefaultInstance(),
+    BluetoothGATTNotifyDataResponse.getDefaultInstance(),
+    BluetoothConnectionsFreeResponse.getDefaultInstance(),
+    BluetoothGATTErrorResponse.getDefaultInstance(),
+    BluetoothGATTWriteResponse.getDefaultInstance(),
+    BluetoothGATTNotifyResponse.getDefaultInstance(),
+    BluetoothDevicePairingResponse.getDefaultInstance(),
+    BluetoothDeviceUnpairingResponse.getDefaultInstance(),
+    BluetoothDeviceClearCacheResponse.getDefaultInstance(),
+    VoiceAssistantRequest.getDefaultInstance());
+
+  /**
+   * Highest message id device may send, tables indexed by message id have MAX_ID + 1 slots
+   */
+  public static final int MAX_ID = PARSERS.length - 1;
+
+  private MessageTypes() {
+  }
+
+  /**
+   * Get parser for message id or null if device isn't expected to send such message
+   */
+  public static @Nullable Parser<?> getParser(int id) {
+    return id >= 0 && id < PARSERS.length ? PARSERS[id] : null;
+  }
+
+  public static int getId(GeneratedMessage message) {
+    return MESSAGE_IDS.get(message.getClass());
+  }
+
+  public static int getId(Class<? extends GeneratedMessage> messageClass) {
+    return MESSAGE_IDS.get(messageClass);
+  }
+
+  private static Parser<?>[] createParsers(GeneratedMessage... messages) {
+    int maxId = 0;
+    for (GeneratedMessage message : messages) {
+      maxId = Math.max(maxId, getId(message));
+    }
+    Parser<?>[] parsers = new Parser<?>[maxId + 1];
+    for (GeneratedMessage message : messages) {
+      int id = getId(message);
+      if (id == 0 || parsers[id] != null) {
+        throw new IllegalStateException("Message " + message.getDescriptorForType().getName() + " has no unique id");
+      }
+      parsers[id] = message.getParserForType();
+    }
+    return parsers;
+  }
+}
@@ -1,14 +1,16 @@
 package org.homio.addon.esphome.api.comm;
 
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.GeneratedMessage;
+import com.southernstorm.noise.protocol.Noise;
 import lombok.extern.log4j.Log4j2;
 import org.homio.addon.esphome.api.CommunicationListener;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
-
-import static org.homio.addon.esphome.api.comm.VarIntConverter.bytesToInt;
+import static org.homio.addon.esphome.api.comm.VarIntConverter.readVarInt;
+import static org.homio.addon.esphome.api.comm.VarIntConverter.varIntSize;
 
 @Log4j2
 public class PlainTextStreamHandler extends StreamHandler {
@@ -21,93 +23,77 @@ public class PlainTextStreamHandler extends StreamHandler {
   }
 
   @Override
-  protected void headerReceived(byte[] headerData) throws ProtocolException {
-    if (headerData[0] != PROTOCOL_PLAINTEXT) {
-      if (headerData[0] == PROTOCOL_ENCRYPTED) {
+  protected boolean decodeFrame(ByteBuffer buffer) throws ProtocolException {
+    int position = buffer.position();
+    byte preamble = buffer.get(position);
+    if (preamble != PROTOCOL_PLAINTEXT) {
+      if (preamble == PROTOCOL_ENCRYPTED) {
         handleAndClose(new RequiresEncryptionAPIError(DEVICE_REQUIRES_ENCRYPTION));
-        return;
       }
       handleAndClose(new ProtocolAPIError(INVALID_PROTOCOL_PREAMBLE));
-      return;
     }
+    position++;
 
-    byte[] encodedProtoPacketLenghtBuffer;
-    byte[] encodedMessageTypeBuffer;
-
-    if ((headerData[1] & VAR_INT_MARKER) == VAR_INT_MARKER) {
-      // Length is longer than 1 byte
-      encodedProtoPacketLenghtBuffer = Arrays.copyOfRange(headerData, 1, 3);
-      encodedMessageTypeBuffer = new byte[0];
-    } else {
-      // This is the most common case with 99% of messages
-      // needing a single byte for length and type which means
-      // we avoid 2 calls to readexactly
-      encodedProtoPacketLenghtBuffer = Arrays.copyOfRange(headerData, 1, 2);
-      encodedMessageTypeBuffer = Arrays.copyOfRange(headerData, 2, 3);
+    // header is preamble, varint payload length and varint message type
+    int lengthSize = varIntSize(buffer, position);
+    if (lengthSize == 0) {
+      return false;
     }
-
-    // If the message is long, we need to read the rest of the length
-    while ((encodedProtoPacketLenghtBuffer[encodedProtoPacketLenghtBuffer.length - 1]
-            & VAR_INT_MARKER) == VAR_INT_MARKER) {
-      byte[] additionalLength = readBytes(1);
-      if (additionalLength.length == 0) {
-        internalBuffer.position(internalBuffer.limit());
-        internalBuffer.limit(internalBuffer.capacity());
-        return;
-      }
-      encodedProtoPacketLenghtBuffer = concatArrays(encodedProtoPacketLenghtBuffer, additionalLength);
+    int protoPacketLength = readVarInt(buffer, position);
+    if (protoPacketLength < 0 || protoPacketLength > Noise.MAX_PACKET_LEN) {
+      handleAndClose(new ProtocolAPIError("Invalid packet length %d".formatted(protoPacketLength)));
     }
+    position += lengthSize;
 
-    // If the message length was longer than 1 byte, we need to read the message type
-    while (encodedMessageTypeBuffer.length == 0
-           || (encodedMessageTypeBuffer[encodedMessageTypeBuffer.length - 1] & VAR_INT_MARKER) == VAR_INT_MARKER) {
-      byte[] additionalencodedMessageTypeBuffer = readBytes(1);
-      if (additionalencodedMessageTypeBuffer.length == 0) {
-        internalBuffer.position(internalBuffer.limit());
-        internalBuffer.limit(internalBuffer.capacity());
-        return;
-      }
-      encodedMessageTypeBuffer = concatArrays(encodedMessageTypeBuffer, additionalencodedMessageTypeBuffer);
+    int typeSize = varIntSize(buffer, position);
+    if (typeSize == 0) {
+      return false;
     }
+    int messageType = readVarInt(buffer, position);
+    position += typeSize;
 
-    Integer protoPacketLength = bytesToInt(encodedProtoPacketLenghtBuffer);
-    Integer messageType = bytesToInt(encodedMessageTypeBuffer);
-
-    if (protoPacketLength == 0) {
-      decodeProtoMessage(messageType, new byte[0]);
-      internalBuffer.compact();
-      // If we have more data, continue processing
-      processBuffer();
-
-    } else if (internalBuffer.remaining() >= protoPacketLength) {
-      // We have enough data in the buffer to read the whole packet
-      byte[] packetData = readBytes(protoPacketLength);
-      decodeProtoMessage(messageType, packetData);
-      internalBuffer.compact();
-      processBuffer();
-    } else {
-      internalBuffer.position(internalBuffer.limit());
-      internalBuffer.limit(internalBuffer.capacity());
+    if (buffer.limit() - position < protoPacketLength) {
+      return false;
     }
+    buffer.position(position + protoPacketLength);
+    decodeProtoMessage(messageType, buffer, position, protoPacketLength);
+    return true;
   }
 
-  public ByteBuffer encodeFrame(GeneratedMessage message) {
-    byte[] protoBytes = message.toByteArray();
-    byte[] idVarUint = VarIntConverter
-      .intToBytes(message.getDescriptorForType().getOptions().getExtension(io.esphome.api.ApiOptions.id));
-    byte[] protoBytesLengthVarUint = VarIntConverter.intToBytes(protoBytes.length);
+  /**
+   * Frame is built in own array of exact size: preamble, varint message length, varint message type and message
+   */
+  public ByteBuffer encodeFrame(GeneratedMessage message) throws ProtocolAPIError {
+    try {
+      int messageLength = message.getSerializedSize();
+      int type = MessageTypes.getId(message);
+      byte[] frame = new byte[1 + CodedOutputStream.computeUInt32SizeNoTag(messageLength)
+                              + CodedOutputStream.computeUInt32SizeNoTag(type) + messageLength];
+      CodedOutputStream output = CodedOutputStream.newInstance(frame);
+      output.write((byte) PROTOCOL_PLAINTEXT);
+      output.writeUInt32NoTag(messageLength);
+      output.writeUInt32NoTag(type);
+      message.writeTo(output);
+      output.checkNoSpaceLeft();
+      return ByteBuffer.wrap(frame);
+    } catch (IOException e) {
+      throw new ProtocolAPIError(e.getMessage());
+    }
+  }
 
-    byte[] frame = new byte[1 + idVarUint.length + protoBytesLengthVarUint.length + protoBytes.length];
-    System.arraycopy(protoBytesLengthVarUint, 0, frame, 1, protoBytesLengthVarUint.length);
-    System.arraycopy(idVarUint, 0, frame, protoBytesLengthVarUint.length + 1, idVarUint.length);
-    System.arraycopy(protoBytes, 0, frame, idVarUint.length + protoBytesLengthVarUint.length + 1,
-      protoBytes.length);
-    return ByteBuffer.wrap(frame);
+  // every frame has own array anyway
+  @Override
+  ByteBuffer encodeFrame(GeneratedMessage message, boolean reuseBuffer) throws ProtocolAPIError {
+    return encodeFrame(message);
   }
 
   @Override
   public void connect(InetSocketAddress espHomeAddress) throws ProtocolException {
     connection.connect(espHomeAddress);
+  }
+
+  @Override
+  protected void onConnected() throws ProtocolException {
     listener.onConnect();
   }
 }
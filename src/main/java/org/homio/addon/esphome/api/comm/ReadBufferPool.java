@@ -0,0 +1,83 @@
+package org.homio.addon.esphome.api.comm;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct buffers used by {@link ConnectionSelector} for socket reads. Every selector thread owns own pool,
+ * so acquire/release are not synchronized. Hit/miss counters are shared between all pools.
+ */
+public class ReadBufferPool {
+
+  public static final int DEFAULT_POOL_SIZE = 4;
+  public static final int DEFAULT_SEGMENT_SIZE = 2048;
+
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder misses = new LongAdder();
+
+  private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+  // single buffer for reads bigger than segment size, reused while large enough
+  private ByteBuffer largeBuffer;
+  private int poolSize;
+  private int segmentSize;
+
+  public ReadBufferPool(int poolSize, int segmentSize) {
+    configure(poolSize, segmentSize);
+  }
+
+  public static long getHits() {
+    return hits.sum();
+  }
+
+  public static long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Must be called from owner selector thread
+   */
+  public void configure(int poolSize, int segmentSize) {
+    this.poolSize = Math.max(1, poolSize);
+    if (this.segmentSize != segmentSize) {
+      buffers.clear();
+      largeBuffer = null;
+    }
+    this.segmentSize = segmentSize;
+    while (buffers.size() > this.poolSize) {
+      buffers.poll();
+    }
+  }
+
+  /**
+   * Get buffer with at least <code>size</code> bytes of space. Buffer limit is set to requested size
+   */
+  public ByteBuffer acquire(int size) {
+    if (size > segmentSize) {
+      if (largeBuffer == null || largeBuffer.capacity() < size) {
+        misses.increment();
+        largeBuffer = ByteBuffer.allocateDirect(size);
+      } else {
+        hits.increment();
+      }
+      largeBuffer.clear().limit(size);
+      return largeBuffer;
+    }
+    ByteBuffer buffer = buffers.poll();
+    if (buffer == null) {
+      misses.increment();
+      buffer = ByteBuffer.allocateDirect(segmentSize);
+    } else {
+      hits.increment();
+    }
+    buffer.limit(size);
+    return buffer;
+  }
+
+  public void release(ByteBuffer buffer) {
+    if (buffer != largeBuffer && buffer.capacity() == segmentSize && buffers.size() < poolSize) {
+      buffer.clear();
+      buffers.push(buffer);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package org.homio.addon.esphome.api.comm;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide reconnect scheduler for native api devices. Every device retries with jittered exponential backoff,
+ * number of concurrent handshakes is capped, and when more devices are due than free handshake slots, devices that
+ * were online recently go first.
+ * <p>
+ * Handshake slot is taken when connect starts and must be returned with {@link #connected(String)},
+ * {@link #schedule(String, Runnable)}, {@link #release(String)} or {@link #cancel(String)}.
+ */
+@Log4j2
+public final class ReconnectScheduler {
+
+  public static final int DEFAULT_MAX_HANDSHAKES = 16;
+  public static final ReconnectScheduler INSTANCE = new ReconnectScheduler();
+
+  private static final long BASE_DELAY_MILLIS = 5_000;
+  private static final long MAX_DELAY_MILLIS = 300_000;
+  // first connect after start is only spread over this window
+  private static final long INITIAL_JITTER_MILLIS = 2_000;
+  // device counts as recently online for this period after it went offline
+  private static final long RECENTLY_ONLINE_MILLIS = 600_000;
+  // slot of handshake that didn't finish in this time is returned to pool
+  private static final long HANDSHAKE_TIMEOUT_MILLIS = 60_000;
+  private static final long TICK_MILLIS = 250;
+
+  private static final Comparator<Entry> PRIORITY = Comparator
+    .comparing((Entry entry) -> !entry.isRecentlyOnline(System.currentTimeMillis()))
+    .thenComparingLong(entry -> entry.dueAt);
+
+  private final Map<String, Entry> entries = new HashMap<>();
+  private int maxHandshakes = DEFAULT_MAX_HANDSHAKES;
+  private int handshakes;
+  private ScheduledExecutorService executor;
+
+  private ReconnectScheduler() {
+  }
+
+  public synchronized void setMaxHandshakes(int maxHandshakes) {
+    this.maxHandshakes = Math.max(1, maxHandshakes);
+  }
+
+  /**
+   * Schedule next connect attempt of device. Delay grows with number of failed attempts since device was last
+   * connected. Releases handshake slot if device holds it.
+   */
+  public synchronized void schedule(String id, Runnable connect) {
+    Entry entry = entries.computeIfAbsent(id, Entry::new);
+    releaseSlot(entry);
+    entry.connect = connect;
+    entry.dueAt = System.currentTimeMillis() + nextDelay(entry.attempts);
+    entry.attempts++;
+    entry.waiting = true;
+    log.debug("ESPHome. Schedule connect of {} in {} ms (attempt {})", id,
+      entry.dueAt - System.currentTimeMillis(), entry.attempts);
+    ensureStarted();
+  }
+
+  /**
+   * Device completed handshake. Resets backoff and releases handshake slot
+   */
+  public synchronized void connected(String id) {
+    Entry entry = entries.get(id);
+    if (entry != null) {
+      releaseSlot(entry);
+      entry.attempts = 0;
+      entry.waiting = false;
+      entry.lastOnline = Long.MAX_VALUE;
+    }
+  }
+
+  /**
+   * Device went offline. Used to prioritize devices which were online recently
+   */
+  public synchronized void disconnected(String id) {
+    Entry entry = entries.get(id);
+    if (entry != null && entry.lastOnline == Long.MAX_VALUE) {
+      entry.lastOnline = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Release handshake slot without scheduling next attempt
+   */
+  public synchronized void release(String id) {
+    Entry entry = entries.get(id);
+    if (entry != null) {
+      releaseSlot(entry);
+    }
+  }
+
+  public synchronized void cancel(String id) {
+    Entry entry = entries.remove(id);
+    if (entry != null) {
+      releaseSlot(entry);
+    }
+  }
+
+  public synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    entries.clear();
+    handshakes = 0;
+  }
+
+  private static long nextDelay(int attempts) {
+    if (attempts == 0) {
+      return ThreadLocalRandom.current().nextLong(INITIAL_JITTER_MILLIS);
+    }
+    long delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempts - 1, 16));
+    // equal jitter: keep half of delay, randomize the rest
+    return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+  }
+
+  private void ensureStarted() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ESPHome Reconnect");
+        thread.setDaemon(true);
+        return thread;
+      });
+      executor.scheduleWithFixedDelay(this::dispatch, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void releaseSlot(Entry entry) {
+    if (entry.handshakeStarted > 0) {
+      entry.handshakeStarted = 0;
+      handshakes--;
+    }
+  }
+
+  private void dispatch() {
+    List<Entry> connects = new ArrayList<>();
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      List<Entry> due = new ArrayList<>();
+      for (Entry entry : entries.values()) {
+        if (entry.handshakeStarted > 0 && now - entry.handshakeStarted > HANDSHAKE_TIMEOUT_MILLIS) {
+          log.warn("ESPHome. Handshake of {} takes more than {} ms, release slot", entry.id, HANDSHAKE_TIMEOUT_MILLIS);
+          releaseSlot(entry);
+        }
+        if (entry.waiting && entry.dueAt <= now) {
+          due.add(entry);
+        }
+      }
+      if (due.isEmpty() || handshakes >= maxHandshakes) {
+        return;
+      }
+      due.sort(PRIORITY);
+      for (Entry entry : due) {
+        if (handshakes >= maxHandshakes) {
+          break;
+        }
+        entry.waiting = false;
+        entry.handshakeStarted = now;
+        handshakes++;
+        connects.add(entry);
+      }
+    }
+    for (Entry entry : connects) {
+      Runnable connect;
+      synchronized (this) {
+        if (entries.get(entry.id) != entry) {
+          // cancelled by previous connect of this batch or by other thread, slot is already released
+          continue;
+        }
+        connect = entry.connect;
+      }
+      try {
+        connect.run();
+      } catch (Exception e) {
+        log.warn("ESPHome. Error while connecting", e);
+      }
+    }
+  }
+
+  private static class Entry {
+
+    private final String id;
+    private Runnable connect;
+    private int attempts;
+    private long dueAt;
+    private boolean waiting;
+    private long handshakeStarted;
+    // Long.MAX_VALUE while online, 0 if never was online
+    private long lastOnline;
+
+    private Entry(String id) {
+      this.id = id;
+    }
+
+    private boolean isRecentlyOnline(long now) {
+      return now - lastOnline < RECENTLY_ONLINE_MILLIS;
+    }
+  }
+}
@@ -1,14 +1,20 @@
 package org.homio.addon.esphome.api.comm;
 
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.Parser;
+import io.esphome.api.PingRequest;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import org.homio.addon.esphome.api.CommunicationListener;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 
 @Log4j2
 @RequiredArgsConstructor
@@ -22,50 +28,75 @@ public abstract class StreamHandler {
   protected static final String DEVICE_REQUIRES_ENCRYPTION = "Device is configured with encrypted api endpoint, but binding isn't using encryption.";
   protected static final String INVALID_PROTOCOL_PREAMBLE = "Invalid protocol preamble - this indicates a new major protocol change has arrived, but this binding does not support it yet";
   protected static final String PACKET_ERROR = "Error parsing packet";
-  protected final ByteBuffer internalBuffer = ByteBuffer.allocate(1024);
-  protected final MessageTypeToClassConverter messageTypeToClassConverter = new MessageTypeToClassConverter();
+  protected final FrameBuffer frameBuffer = new FrameBuffer();
+  @Getter
+  private final AdaptiveReadSize readSize = new AdaptiveReadSize();
 
   protected final CommunicationListener listener;
   protected ESPHomeConnection connection;
+  private volatile boolean closed;
+  /**
+   * Time of last received data, any data from device counts as proof of life. 0 until device sent anything
+   */
+  @Getter
+  private volatile long lastReceived;
+  /**
+   * Message ids which listener handles. Payload of other messages is skipped without parsing. Null accepts all
+   */
+  @Setter
+  private @Nullable BitSet acceptedMessageTypes;
+  /**
+   * Trace of device, also counts messages skipped as not accepted
+   */
+  @Setter
+  private @Nullable WireTrace wireTrace;
 
-  protected static byte[] concatArrays(byte[] length, byte[] additionalLength) {
-    byte[] result = new byte[length.length + additionalLength.length];
-    System.arraycopy(length, 0, result, 0, length.length);
-    System.arraycopy(additionalLength, 0, result, length.length, additionalLength.length);
-    return result;
-  }
-
+  /**
+   * Consume received data. Buffer is in read mode and belongs to selector's pool, so all bytes must be
+   * consumed before return
+   */
   public void processReceivedData(ByteBuffer newDataBuffer) throws ProtocolException, IOException {
-    // Copy new data into buffer
-    newDataBuffer.flip();
-    internalBuffer.put(newDataBuffer);
-    processBuffer();
-  }
-
-  protected void processBuffer() throws ProtocolException {
-    internalBuffer.limit(internalBuffer.position());
-    internalBuffer.position(0);
-    if (internalBuffer.remaining() > 2) {
-      byte[] headerData = readBytes(3);
-      headerReceived(headerData);
+    lastReceived = System.currentTimeMillis();
+    if (frameBuffer.isEmpty()) {
+      // common case - whole frames arrived, decode them directly from received buffer
+      processFrames(newDataBuffer);
+      if (newDataBuffer.hasRemaining()) {
+        // keep incomplete frame until the rest arrives
+        frameBuffer.write(newDataBuffer);
+      }
     } else {
-      internalBuffer.position(internalBuffer.limit());
-      internalBuffer.limit(internalBuffer.capacity());
+      frameBuffer.write(newDataBuffer);
+      ByteBuffer buffer = frameBuffer.readView();
+      processFrames(buffer);
+      frameBuffer.consumeUntil(buffer.position());
     }
   }
 
-  protected byte[] readBytes(int numBytes) {
-    if (internalBuffer.remaining() < numBytes) {
-      return new byte[0];
+  private void processFrames(ByteBuffer buffer) throws ProtocolException {
+    while (buffer.hasRemaining() && !closed) {
+      int frameStart = buffer.position();
+      if (!decodeFrame(buffer)) {
+        // wait for the rest of current frame
+        buffer.position(frameStart);
+        return;
+      }
     }
-    byte[] data = new byte[numBytes];
-    internalBuffer.get(data);
-    return data;
   }
 
-  protected abstract void headerReceived(byte[] headerData) throws ProtocolException;
+  /**
+   * Decode single frame starting at buffer position and move position after it.
+   *
+   * @return false if buffer doesn't contain complete frame yet
+   */
+  protected abstract boolean decodeFrame(ByteBuffer buffer) throws ProtocolException;
 
-  abstract ByteBuffer encodeFrame(GeneratedMessage message) throws ProtocolAPIError;
+  /**
+   * Encode message into frame ready to be written to socket
+   *
+   * @param reuseBuffer true to build frame in buffer of handler, which is valid only until next call. False to build
+   *                    it in own buffer, which may be kept until other frames are encoded
+   */
+  abstract ByteBuffer encodeFrame(GeneratedMessage message, boolean reuseBuffer) throws ProtocolAPIError;
 
   public void endOfStream(String message) {
     listener.onEndOfStream(message);
@@ -76,21 +107,90 @@ public abstract class StreamHandler {
     listener.onParseError(e.getMessage());
   }
 
+  /**
+   * Start connecting. Returns immediately, {@link #onConnected()} is called by selector thread once socket is
+   * connected
+   */
   public abstract void connect(InetSocketAddress espHomeAddress) throws ProtocolException;
 
-  public void send(GeneratedMessage message) throws ProtocolAPIError {
+  protected abstract void onConnected() throws ProtocolException;
+
+  /**
+   * Encode and write message. Synchronized as encoders reuse own buffer and encrypted frames must be written in
+   * the order of their nonce
+   */
+  public synchronized void send(GeneratedMessage message) throws ProtocolAPIError {
     try {
-      if (connection != null) {
-        connection.send(encodeFrame(message));
-      } else {
+      if (connection == null) {
         log.debug("Connection is null, cannot send message");
+      } else if (message instanceof PingRequest && connection.hasPendingWrites()) {
+        // previous frames are still waiting for socket, extra ping won't tell anything new
+        log.debug("Outbound queue is not empty, skip ping");
+      } else {
+        // reject before encoding, encrypted frame can't be dropped once nonce is used
+        connection.ensureCapacity();
+        traceOutbound(message);
+        connection.send(encodeFrame(message, true));
       }
     } catch (ProtocolAPIError e) {
       log.warn("Error sending message", e);
     }
   }
 
+  /**
+   * Send several messages with single gathering write
+   */
+  public synchronized void send(GeneratedMessage... messages) throws ProtocolAPIError {
+    try {
+      if (connection == null) {
+        log.debug("Connection is null, cannot send messages");
+        return;
+      }
+      connection.ensureCapacity();
+      ByteBuffer[] frames = new ByteBuffer[messages.length];
+      for (int i = 0; i < messages.length; i++) {
+        // every frame is encoded and encrypted in own buffer, as all of them are kept until batch is written
+        traceOutbound(messages[i]);
+        frames[i] = encodeFrame(messages[i], false);
+      }
+      connection.send(frames);
+    } catch (ProtocolAPIError e) {
+      log.warn("Error sending messages", e);
+    }
+  }
+
+  /**
+   * Queue frames sent within one selector tick and write them together instead of writing every frame immediately
+   */
+  public void setCoalesceWrites(boolean coalesceWrites) {
+    if (connection != null) {
+      connection.setCoalesceWrites(coalesceWrites);
+    }
+  }
+
+  /**
+   * Write queued frames. Called by selector thread on OP_WRITE
+   *
+   * @return true if nothing left to write
+   */
+  public boolean flush() throws IOException {
+    return connection == null || connection.flush();
+  }
+
+  /**
+   * @return true if frames are waiting in outbound queue, i.e. frames sent before connect finished
+   */
+  public boolean hasPendingWrites() {
+    return connection != null && connection.hasPendingWrites();
+  }
+
+  public void writabilityChanged(boolean writable) {
+    listener.onWritabilityChanged(writable);
+  }
+
   public void close() {
+    closed = true;
+    log.debug("Closing connection. Frame buffer high-water mark: {} bytes", frameBuffer.getHighWaterMark());
     if (connection != null) {
       connection.close();
     }
@@ -102,17 +202,62 @@ public abstract class StreamHandler {
     throw ex;
   }
 
-  protected void decodeProtoMessage(int messageType, byte[] bytes) {
-    log.debug("Received packet of type {} with data {}", messageType, bytes);
+  /**
+   * Parse message from buffer region without copying it. Buffer position and limit are restored afterwards
+   */
+  protected void decodeProtoMessage(int messageType, ByteBuffer buffer, int offset, int length) {
+    if (wireTrace != null) {
+      wireTrace.inbound(messageType, buffer, offset, length);
+    }
+    if (!acceptMessage(messageType)) {
+      return;
+    }
+    int limit = buffer.limit();
+    int position = buffer.position();
+    buffer.limit(offset + length).position(offset);
+    try {
+      decodeProtoMessage(messageType, CodedInputStream.newInstance(buffer));
+    } finally {
+      buffer.limit(limit).position(position);
+    }
+  }
+
+  protected void decodeProtoMessage(int messageType, byte[] bytes, int offset, int length) {
+    if (wireTrace != null) {
+      wireTrace.inbound(messageType, bytes, offset, length);
+    }
+    if (!acceptMessage(messageType)) {
+      return;
+    }
+    decodeProtoMessage(messageType, CodedInputStream.newInstance(bytes, offset, length));
+  }
+
+  private void traceOutbound(GeneratedMessage message) {
+    if (wireTrace != null && wireTrace.isEnabled()) {
+      wireTrace.outbound(MessageTypes.getId(message), message.toByteArray());
+    }
+  }
+
+  private boolean acceptMessage(int messageType) {
+    if (MessageTypes.getParser(messageType) != null
+        && (acceptedMessageTypes == null || acceptedMessageTypes.get(messageType))) {
+      return true;
+    }
+    if (wireTrace != null) {
+      wireTrace.skipped(messageType);
+    }
+    return false;
+  }
 
+  private void decodeProtoMessage(int messageType, CodedInputStream input) {
     try {
-      Method parseMethod = messageTypeToClassConverter.getMethod(messageType);
-      if (parseMethod != null) {
-        GeneratedMessage invoke = (GeneratedMessage) parseMethod.invoke(null, bytes);
-        if (invoke != null) {
-          listener.onPacket(invoke);
+      Parser<?> parser = MessageTypes.getParser(messageType);
+      if (parser != null) {
+        GeneratedMessage message = (GeneratedMessage) parser.parseFrom(input);
+        if (message != null) {
+          listener.onPacket(messageType, message);
         } else {
-          log.warn("Received null packet of type {}", parseMethod);
+          log.warn("Received null packet of type {}", messageType);
         }
       }
     } catch (Exception e) {
@@ -1,5 +1,7 @@
 package org.homio.addon.esphome.api.comm;
 
+import java.nio.ByteBuffer;
+
 /**
  * Helper utility for converting integers to and from varints
  *
@@ -7,6 +9,8 @@ package org.homio.addon.esphome.api.comm;
  */
 public class VarIntConverter {
 
+  private static final int MAX_VAR_INT_SIZE = 5;
+
   /**
    * Convert an integer to a varint byte array
    */
@@ -49,6 +53,39 @@ public class VarIntConverter {
     return null;
   }
 
+  /**
+   * Get length of varint stored at absolute position of buffer. Buffer position is not changed.
+   *
+   * @return number of bytes of varint or 0 if buffer ends before varint is complete
+   */
+  public static int varIntSize(ByteBuffer buffer, int position) throws ProtocolAPIError {
+    int limit = buffer.limit();
+    for (int i = 0; i < MAX_VAR_INT_SIZE; i++) {
+      if (position + i >= limit) {
+        return 0;
+      }
+      if ((buffer.get(position + i) & 0x80) == 0) {
+        return i + 1;
+      }
+    }
+    throw new ProtocolAPIError("Malformed varint");
+  }
+
+  /**
+   * Read complete varint stored at absolute position of buffer. Use {@link #varIntSize(ByteBuffer, int)} first
+   */
+  public static int readVarInt(ByteBuffer buffer, int position) {
+    int result = 0;
+    int bitpos = 0;
+    byte val;
+    do {
+      val = buffer.get(position++);
+      result |= (val & 0x7F) << bitpos;
+      bitpos += 7;
+    } while ((val & 0x80) != 0);
+    return result;
+  }
+
   private static byte[] trimArray(byte[] array, int length) {
     byte[] trimmedArray = new byte[length];
     System.arraycopy(array, 0, trimmedArray, 0, length);
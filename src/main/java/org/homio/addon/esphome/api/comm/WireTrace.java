@@ -0,0 +1,110 @@
+package org.homio.addon.esphome.api.comm;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Trace of raw messages of single device. Disabled trace costs one volatile read per message. Enabled trace keeps
+ * hex dumps of last {@link #CAPACITY} messages in ring buffer and records at most {@link #MAX_RECORDS_PER_SECOND}
+ * messages per second, messages above the rate are only counted. Messages which payload was skipped without
+ * parsing are counted per message id whether trace is enabled or not, and listed after recorded messages.
+ */
+public class WireTrace {
+
+  public static final int CAPACITY = 256;
+  public static final int MAX_RECORDS_PER_SECOND = 50;
+  // longer payloads are truncated in dump
+  private static final int MAX_DUMP_BYTES = 512;
+  private static final HexFormat HEX = HexFormat.ofDelimiter(" ");
+
+  @Getter
+  private volatile boolean enabled;
+  private final String[] records = new String[CAPACITY];
+  private int next;
+  private int size;
+  private long windowStart;
+  private int windowRecords;
+  private long dropped;
+  // skipped messages per message id, last slot counts ids unknown to this api version. Survives reconnects
+  private final AtomicLongArray skippedMessages = new AtomicLongArray(MessageTypes.MAX_ID + 2);
+
+  public synchronized void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (enabled) {
+      next = 0;
+      size = 0;
+      dropped = 0;
+    }
+  }
+
+  public void inbound(int messageType, ByteBuffer buffer, int offset, int length) {
+    if (enabled) {
+      byte[] dump = new byte[Math.min(length, MAX_DUMP_BYTES)];
+      buffer.get(offset, dump);
+      record("<-", messageType, dump, 0, length);
+    }
+  }
+
+  public void inbound(int messageType, byte[] bytes, int offset, int length) {
+    if (enabled) {
+      record("<-", messageType, bytes, offset, length);
+    }
+  }
+
+  public void outbound(int messageType, byte[] payload) {
+    if (enabled) {
+      record("->", messageType, payload, 0, payload.length);
+    }
+  }
+
+  /**
+   * Count message of type which service doesn't handle
+   */
+  public void skipped(int messageType) {
+    skippedMessages.incrementAndGet(messageType < 0 || messageType > MessageTypes.MAX_ID
+      ? MessageTypes.MAX_ID + 1 : messageType);
+  }
+
+  /**
+   * @return recorded messages, oldest first, followed by counters of skipped messages
+   */
+  public synchronized List<String> getRecords() {
+    List<String> result = new ArrayList<>(size + 1);
+    for (int i = 0; i < size; i++) {
+      result.add(records[(next - size + i + CAPACITY) % CAPACITY]);
+    }
+    if (dropped > 0) {
+      result.add("%d messages not recorded due to rate limit".formatted(dropped));
+    }
+    for (int i = 0; i < skippedMessages.length(); i++) {
+      long skipped = skippedMessages.get(i);
+      if (skipped > 0) {
+        result.add("%d messages of type %s skipped".formatted(skipped, i > MessageTypes.MAX_ID ? "unknown" : i));
+      }
+    }
+    return result;
+  }
+
+  private synchronized void record(String direction, int messageType, byte[] bytes, int offset, int length) {
+    long second = System.currentTimeMillis() / 1000;
+    if (second != windowStart) {
+      windowStart = second;
+      windowRecords = 0;
+    }
+    if (++windowRecords > MAX_RECORDS_PER_SECOND) {
+      dropped++;
+      return;
+    }
+    int dumpLength = Math.min(length, MAX_DUMP_BYTES);
+    records[next] = "%s %s type=%d len=%d %s%s".formatted(LocalTime.now(), direction, messageType, length,
+      HEX.formatHex(bytes, offset, offset + dumpLength), dumpLength < length ? " ..." : "");
+    next = (next + 1) % CAPACITY;
+    size = Math.min(size + 1, CAPACITY);
+  }
+}
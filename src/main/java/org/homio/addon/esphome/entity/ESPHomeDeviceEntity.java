@@ -26,6 +26,7 @@ import org.homio.api.ui.UISidebarMenu.TopSidebarMenu;
 import org.homio.api.ui.field.UIField;
 import org.homio.api.ui.field.UIFieldGroup;
 import org.homio.api.ui.field.UIFieldIgnore;
+import org.homio.api.ui.field.UIFieldSlider;
 import org.homio.api.ui.field.UIFieldType;
 import org.homio.api.ui.field.action.v1.UIInputBuilder;
 import org.homio.api.ui.field.condition.UIFieldShowOnCondition;
@@ -92,6 +93,17 @@ public final class ESPHomeDeviceEntity extends DeviceBaseEntity implements
     setJsonDataEnum("comm", communication);
   }
 
+  @UIField(order = 110)
+  @UIFieldSlider(min = 1, max = 300)
+  @UIFieldShowOnCondition("return !context.get('compactMode')")
+  public int getLastSeenInterval() {
+    return getJsonData("lsi", 30);
+  }
+
+  public void setLastSeenInterval(int value) {
+    setJsonData("lsi", value);
+  }
+
   @Override
   public String getFirmwareVersion() {
     return getJsonData("fv");
@@ -137,7 +149,8 @@ public final class ESPHomeDeviceEntity extends DeviceBaseEntity implements
   @Override
   public long getEntityServiceHashCode() {
     return Objects.hashCode(getIeeeAddress()) + Objects.hashCode(getName()) +
-           getJsonDataHashCode("comm", "lp", "tp", "pd", "ip", "napwd", "nap", "pi", "mpt");
+           getJsonDataHashCode("comm", "lp", "tp", "pd", "ip", "napwd", "nap", "pi", "mpt", "ncw",
+             "sdb", "sdbp", "smi", "lsi");
   }
 
   @Override
@@ -200,6 +213,10 @@ public final class ESPHomeDeviceEntity extends DeviceBaseEntity implements
     if (getCommunicator() == Communication.NATIVE_API) {
       uiInputBuilder.addSelectableButton("REFRESH", new Icon("fas fa-arrows-rotate", "#27C4C3"),
         (context, params) -> getService().getApiService().refresh());
+      uiInputBuilder.addSelectableButton("WIRE_TRACE", new Icon("fas fa-bug", "#C4A127"),
+        (context, params) -> getService().getApiService().toggleWireTrace());
+      uiInputBuilder.addSelectableButton("SHOW_WIRE_TRACE", new Icon("fas fa-list-ul", "#C4A127"),
+        (context, params) -> getService().getApiService().showWireTrace());
     }
   }
 
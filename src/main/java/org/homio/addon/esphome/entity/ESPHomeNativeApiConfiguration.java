@@ -69,4 +69,64 @@ public interface ESPHomeNativeApiConfiguration extends HasJsonData {
   default void setMaxPingTimeout(int value) {
     setJsonData("mpt", value);
   }
+
+  @UIField(order = 5)
+  @UIFieldSlider(min = 1, max = 60)
+  @UIFieldTab("NATIVE_API")
+  @UIFieldShowOnCondition("return !context.get('compactMode') && context.get('communicator') != 'MQTT'")
+  default int getKeepaliveIdle() {
+    return getJsonData("kai", 10);
+  }
+
+  default void setKeepaliveIdle(int value) {
+    setJsonData("kai", value);
+  }
+
+  @UIField(order = 6)
+  @UIFieldTab("NATIVE_API")
+  @UIFieldShowOnCondition("return !context.get('compactMode') && context.get('communicator') != 'MQTT'")
+  default boolean isCoalesceWrites() {
+    return getJsonData("ncw", false);
+  }
+
+  default void setCoalesceWrites(boolean value) {
+    setJsonData("ncw", value);
+  }
+
+  // 0 drops only changes which are invisible with sensor's accuracy_decimals
+  @UIField(order = 7)
+  @UIFieldSlider(min = 0, max = 100)
+  @UIFieldTab("NATIVE_API")
+  @UIFieldShowOnCondition("return !context.get('compactMode') && context.get('communicator') != 'MQTT'")
+  default int getStateDeadband() {
+    return getJsonData("sdb", 0);
+  }
+
+  default void setStateDeadband(int value) {
+    setJsonData("sdb", value);
+  }
+
+  @UIField(order = 8)
+  @UIFieldSlider(min = 0, max = 50)
+  @UIFieldTab("NATIVE_API")
+  @UIFieldShowOnCondition("return !context.get('compactMode') && context.get('communicator') != 'MQTT'")
+  default int getStateDeadbandPercent() {
+    return getJsonData("sdbp", 0);
+  }
+
+  default void setStateDeadbandPercent(int value) {
+    setJsonData("sdbp", value);
+  }
+
+  @UIField(order = 9)
+  @UIFieldSlider(min = 0, max = 300)
+  @UIFieldTab("NATIVE_API")
+  @UIFieldShowOnCondition("return !context.get('compactMode') && context.get('communicator') != 'MQTT'")
+  default int getStateMinInterval() {
+    return getJsonData("smi", 0);
+  }
+
+  default void setStateMinInterval(int value) {
+    setJsonData("smi", value);
+  }
 }
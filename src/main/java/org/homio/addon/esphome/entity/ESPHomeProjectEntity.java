@@ -7,6 +7,7 @@ import lombok.NoArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
 import org.homio.addon.esphome.ESPHomeEntrypoint;
+import org.homio.addon.esphome.api.comm.ReadBufferPool;
 import org.homio.addon.esphome.service.ESPHomeProjectService;
 import org.homio.api.Context;
 import org.homio.api.ContextService;
@@ -111,6 +112,11 @@ public class ESPHomeProjectEntity extends MicroControllerBaseEntity
     setJsonData("dp", value);
   }
 
+  @UIField(order = 200, hideInEdit = true)
+  public String getReadBufferPool() {
+    return "Hits: %d. Misses: %d".formatted(ReadBufferPool.getHits(), ReadBufferPool.getMisses());
+  }
+
   @Override
   public @Nullable String getFirmwareVersion() {
     return optService().map(ESPHomeProjectService::getVersion).orElse(null);
@@ -11,4 +11,12 @@ public interface CommunicatorService {
   default ActionResponseModel refresh() {
     return ActionResponseModel.showError("Not implemented");
   }
+
+  default ActionResponseModel toggleWireTrace() {
+    return ActionResponseModel.showError("Not implemented");
+  }
+
+  default ActionResponseModel showWireTrace() {
+    return ActionResponseModel.showError("Not implemented");
+  }
 }
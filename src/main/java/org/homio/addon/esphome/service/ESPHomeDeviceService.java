@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import static org.homio.api.model.Status.OFFLINE;
@@ -46,6 +47,11 @@ public class ESPHomeDeviceService extends ServiceInstance<ESPHomeDeviceEntity> {
 
   private List<ConfigDeviceDefinition> models;
   private @Getter CommunicatorService apiService;
+  // last seen endpoint is written not more often than once per interval, pending value is written on status change
+  // written under lock by publishLastSeen, read without lock by updateLastSeen on connection threads
+  private volatile long lastSeen;
+  private volatile long lastSeenPublished;
+  private volatile long lastSeenIntervalMillis;
 
   public ESPHomeDeviceService(@NotNull Context context, @NotNull ESPHomeDeviceEntity entity) {
     super(context, entity, true, "ESPHome");
@@ -57,11 +63,35 @@ public class ESPHomeDeviceService extends ServiceInstance<ESPHomeDeviceEntity> {
     if (status != entity.getStatus()) {
       entity.setStatus(status, message);
       endpoints.get(ENDPOINT_DEVICE_STATUS).setValue(new StringType(status.name()), true);
+      publishLastSeen();
     }
   }
 
   public void updateLastSeen() {
-    endpoints.get(ENDPOINT_LAST_SEEN).setValue(new DecimalType(System.currentTimeMillis()), true);
+    updateLastSeen(System.currentTimeMillis());
+  }
+
+  /**
+   * Record time when device was seen. Endpoint is updated at most once per configured last seen interval
+   */
+  public void updateLastSeen(long timestamp) {
+    if (timestamp > lastSeen) {
+      lastSeen = timestamp;
+      if (timestamp - lastSeenPublished >= lastSeenIntervalMillis) {
+        publishLastSeen();
+      }
+    }
+  }
+
+  private synchronized void publishLastSeen() {
+    long timestamp = lastSeen;
+    if (timestamp > lastSeenPublished) {
+      lastSeenPublished = timestamp;
+      ESPHomeEndpoint endpoint = endpoints.get(ENDPOINT_LAST_SEEN);
+      if (endpoint != null) {
+        endpoint.setValue(new DecimalType(timestamp), true);
+      }
+    }
   }
 
   @SneakyThrows
@@ -80,12 +110,13 @@ public class ESPHomeDeviceService extends ServiceInstance<ESPHomeDeviceEntity> {
     downLinkQualityToZero();
   }
 
-  public void addEndpointOptional(String key, Supplier<ESPHomeEndpoint> endpointProducer) {
+  public ESPHomeEndpoint addEndpointOptional(String key, Supplier<ESPHomeEndpoint> endpointProducer) {
     ESPHomeEndpoint endpoint = endpoints.get(key);
     if (endpoint == null) {
       endpoint = endpointProducer.get();
       endpoints.put(key, endpoint);
     }
+    return endpoint;
   }
 
   public String getGroupDescription() {
@@ -112,6 +143,7 @@ public class ESPHomeDeviceService extends ServiceInstance<ESPHomeDeviceEntity> {
 
   @Override
   protected void initialize() {
+    lastSeenIntervalMillis = TimeUnit.SECONDS.toMillis(entity.getLastSeenInterval());
     setDeviceStatus(OFFLINE, null);
     apiService = entity.getCommunicator() == Communication.NATIVE_API ?
       new ESPHomeNativeApiService(this) :
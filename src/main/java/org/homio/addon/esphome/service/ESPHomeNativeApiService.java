@@ -22,7 +22,6 @@ import io.esphome.api.LightStateResponse;
 import io.esphome.api.ListEntitiesBinarySensorResponse;
 import io.esphome.api.ListEntitiesButtonResponse;
 import io.esphome.api.ListEntitiesClimateResponse;
-import io.esphome.api.ListEntitiesDoneResponse;
 import io.esphome.api.ListEntitiesLightResponse;
 import io.esphome.api.ListEntitiesNumberResponse;
 import io.esphome.api.ListEntitiesRequest;
@@ -46,19 +45,25 @@ import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
 import org.homio.addon.esphome.ESPHomeEndpoint;
 import org.homio.addon.esphome.api.CommunicationListener;
+import org.homio.addon.esphome.api.DeadbandFilter;
 import org.homio.addon.esphome.api.EnumHelper;
-import org.homio.addon.esphome.api.SensorNumberDeviceClass;
+import org.homio.addon.esphome.api.IntObjectMap;
 import org.homio.addon.esphome.api.comm.ConnectionSelector;
+import org.homio.addon.esphome.api.comm.ConnectionSelectorGroup;
 import org.homio.addon.esphome.api.comm.EncryptedStreamHandler;
+import org.homio.addon.esphome.api.comm.HashedWheelTimer;
+import org.homio.addon.esphome.api.comm.HashedWheelTimer.Timeout;
+import org.homio.addon.esphome.api.comm.MessageTypes;
 import org.homio.addon.esphome.api.comm.PlainTextStreamHandler;
 import org.homio.addon.esphome.api.comm.ProtocolAPIError;
 import org.homio.addon.esphome.api.comm.ProtocolException;
+import org.homio.addon.esphome.api.comm.ReconnectScheduler;
 import org.homio.addon.esphome.api.comm.StreamHandler;
+import org.homio.addon.esphome.api.comm.WireTrace;
 import org.homio.addon.esphome.entity.ESPHomeDeviceEntity;
-import org.homio.api.ContextBGP;
-import org.homio.api.ContextBGP.ThreadContext;
 import org.homio.api.model.ActionResponseModel;
 import org.homio.api.model.OptionModel;
+import org.homio.api.model.Status;
 import org.homio.api.model.endpoint.DeviceEndpoint.EndpointType;
 import org.homio.api.state.DecimalType;
 import org.homio.api.state.OnOffType;
@@ -66,13 +71,15 @@ import org.homio.api.state.State;
 import org.homio.api.state.StringType;
 import org.homio.api.util.CommonUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.net.InetSocketAddress;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -94,23 +101,65 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
   public static final String CHANNEL_SWING_MODE = "swing_mode";
   public static final String CHANNEL_CURRENT_TEMPERATURE = "current_temperature";
   public static final String CHANNEL_MODE = "mode";
+  private static final int SLOT_TARGET_TEMPERATURE = 0;
+  private static final int SLOT_CURRENT_TEMPERATURE = 1;
+  private static final int SLOT_MODE = 2;
+  private static final int SLOT_FAN_MODE = 3;
+  private static final int SLOT_CUSTOM_FAN_MODE = 4;
+  private static final int SLOT_PRESET = 5;
+  private static final int SLOT_CUSTOM_PRESET = 6;
+  private static final int SLOT_SWING_MODE = 7;
+  // climate channels in order of their slot in climate endpoint index
+  private static final String[] CLIMATE_CHANNELS = {CHANNEL_TARGET_TEMPERATURE, CHANNEL_CURRENT_TEMPERATURE, CHANNEL_MODE,
+    CHANNEL_FAN_MODE, CHANNEL_CUSTOM_FAN_MODE, CHANNEL_PRESET, CHANNEL_CUSTOM_PRESET, CHANNEL_SWING_MODE};
 
-  public static final int CONNECT_TIMEOUT = 20;
   private static final int API_VERSION_MAJOR = 1;
   private static final int API_VERSION_MINOR = 7;
+  // entity message handlers indexed by message id, ListEntities* and state messages are kept in separate tables
+  private static final MessageHandler[] LIST_ENTITIES_HANDLERS = new MessageHandler[MessageTypes.MAX_ID + 1];
+  private static final MessageHandler[] STATE_HANDLERS = new MessageHandler[MessageTypes.MAX_ID + 1];
+  // messages the service handles, payload of others (logs, bluetooth advertisements, etc.) is skipped by framer
+  private static final BitSet ACCEPTED_MESSAGE_TYPES = new BitSet(MessageTypes.MAX_ID + 1);
+
+  static {
+    for (MessageHandler handler : MessageHandler.values()) {
+      LIST_ENTITIES_HANDLERS[MessageTypes.getId(handler.listEntitiesClass)] = handler;
+      STATE_HANDLERS[MessageTypes.getId(handler.stateClass)] = handler;
+      ACCEPTED_MESSAGE_TYPES.set(MessageTypes.getId(handler.listEntitiesClass));
+      ACCEPTED_MESSAGE_TYPES.set(MessageTypes.getId(handler.stateClass));
+    }
+    for (int messageType : new int[]{MessageTypes.HELLO_RESPONSE, MessageTypes.CONNECT_RESPONSE,
+      MessageTypes.DISCONNECT_REQUEST, MessageTypes.DISCONNECT_RESPONSE, MessageTypes.PING_REQUEST,
+      MessageTypes.PING_RESPONSE, MessageTypes.DEVICE_INFO_RESPONSE, MessageTypes.LIST_ENTITIES_DONE_RESPONSE}) {
+      ACCEPTED_MESSAGE_TYPES.set(messageType);
+    }
+  }
   private final ESPHomeDeviceService service;
   private final String ipAddress;
 
-  private final ConnectionSelector connectionSelector;
   private final String entityID;
   private final ESPHomeDeviceEntity entity;
-  private final Map<Class<? extends GeneratedMessage>, MessageHandler> classToHandlerMap = new HashMap<>();
+  // survives reconnects, so trace of flapping device isn't lost
+  private final WireTrace wireTrace = new WireTrace();
+  // esphome entity key -> endpoint, filled by ListEntities* handlers. Read by selector thread of current connection,
+  // which may differ after reconnect, and by other threads. Copy on write: maps and climate channel arrays are
+  // never modified after they are published, writers replace them whole under lock
+  private volatile IntObjectMap<ESPHomeEndpoint> endpointsByKey = new IntObjectMap<>();
+  // climate entity key -> endpoints indexed by position in CLIMATE_CHANNELS
+  private volatile IntObjectMap<ESPHomeEndpoint[]> climateEndpointsByKey = new IntObjectMap<>();
   private ConnectionState connectionState = ConnectionState.UNINITIALIZED;
   private StreamHandler frameHelper;
-  private ThreadContext<Void> pingWatchdogFuture;
-  private ThreadContext<Void> reconnectFuture;
-  private boolean disposed;
-  private Instant lastPong = Instant.now();
+  private Timeout pingWatchdog;
+  // pings sent since device sent anything, keepalive timer thread only
+  private int unansweredPings;
+  private long lastPingSent;
+  // start of current connect, idle time is measured from it until device sent anything
+  private volatile long connectStarted;
+  // set by destroy on other thread, checked by connect which may already be dispatched by ReconnectScheduler
+  private volatile boolean disposed;
+  // commands held back while connection is unwritable, latest per entity key and slot. Guards writable flag too
+  private final Map<Long, GeneratedMessage> deferredCommands = new LinkedHashMap<>();
+  private boolean writable = true;
 
   @SneakyThrows
   public ESPHomeNativeApiService(@NotNull ESPHomeDeviceService service) {
@@ -118,40 +167,13 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
     this.entity = service.getEntity();
     this.entityID = service.getEntityID();
     this.ipAddress = service.getEntity().getDeviceIpAddress();
-    this.connectionSelector = new ConnectionSelector();
-    registerMessageHandlers();
-  }
-
-  private static State toNumericState(ESPHomeEndpoint endpoint, float state, boolean missingState) {
-    if (missingState || Float.isNaN(state)) {
-      return null;
-    } else {
-      String deviceClass = endpoint.getDeviceClass();
-      if (deviceClass != null) {
-        SensorNumberDeviceClass sensorDeviceClass = SensorNumberDeviceClass.fromDeviceClass(deviceClass);
-        if (sensorDeviceClass != null) {
-          if (sensorDeviceClass.getItemType().startsWith("Number")) {
-            return new DecimalType(state);
-          } else {
-            log.warn(
-              "Expected SensorNumberDeviceClass '{}' to be of item type Number[:Dimension]. Returning undef",
-              deviceClass);
-            return null;
-          }
-        } else {
-          return new DecimalType(state);
-        }
-      } else {
-        return new DecimalType(state);
-      }
-    }
   }
 
   private static void buildClimateEndpoints(ESPHomeNativeApiService service, ListEntitiesClimateResponse rsp) {
     service.addEndpoint(CHANNEL_TARGET_TEMPERATURE, rsp, EndpointType.number, ep -> {
       ep.setUnit("°C");
       ep.setUpdateHandler(state ->
-        service.sendClimate(rsp,
+        service.sendClimate(rsp, SLOT_TARGET_TEMPERATURE,
           builder -> builder.setHasCustomPreset(true).setCustomPreset(state.stringValue())));
     });
     if (rsp.getSupportsCurrentTemperature()) {
@@ -162,7 +184,7 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
         List<String> range = rsp.getSupportedModesList().stream().map(EnumHelper::stripEnumPrefix).collect(Collectors.toList());
         ep.setRange(OptionModel.list(range));
         ep.setUpdateHandler(state ->
-          service.sendClimate(rsp, builder ->
+          service.sendClimate(rsp, SLOT_MODE, builder ->
             builder.setHasMode(true).setMode(ClimateMode.valueOf(state.stringValue()))));
       });
     }
@@ -171,7 +193,7 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
         List<String> range = rsp.getSupportedFanModesList().stream().map(EnumHelper::stripEnumPrefix).collect(Collectors.toList());
         ep.setRange(OptionModel.list(range));
         ep.setUpdateHandler(state ->
-          service.sendClimate(rsp, builder ->
+          service.sendClimate(rsp, SLOT_FAN_MODE, builder ->
             builder.setHasFanMode(true).setFanMode(ClimateFanMode.valueOf(state.stringValue()))));
       });
     }
@@ -179,7 +201,7 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
       service.addEndpoint(CHANNEL_CUSTOM_FAN_MODE, rsp, EndpointType.string, ep -> {
         ep.setRange(OptionModel.list(rsp.getSupportedCustomFanModesList()));
         ep.setUpdateHandler(state ->
-          service.sendClimate(rsp,
+          service.sendClimate(rsp, SLOT_CUSTOM_FAN_MODE,
             builder -> builder.setHasCustomFanMode(true).setCustomFanMode(state.stringValue())));
       });
     }
@@ -188,7 +210,7 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
         List<String> range = rsp.getSupportedPresetsList().stream().map(EnumHelper::stripEnumPrefix).collect(Collectors.toList());
         ep.setRange(OptionModel.list(range));
         ep.setUpdateHandler(state ->
-          service.sendClimate(rsp,
+          service.sendClimate(rsp, SLOT_PRESET,
             builder -> builder.setHasPreset(true).setPreset(ClimatePreset.valueOf(state.stringValue()))));
       });
     }
@@ -196,7 +218,7 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
       service.addEndpoint(CHANNEL_CUSTOM_PRESET, rsp, EndpointType.string, ep -> {
         ep.setRange(OptionModel.list(rsp.getSupportedCustomPresetsList()));
         ep.setUpdateHandler(state ->
-          service.sendClimate(rsp,
+          service.sendClimate(rsp, SLOT_CUSTOM_PRESET,
             builder -> builder.setHasCustomPreset(true).setCustomPreset(state.stringValue())));
       });
     }
@@ -204,7 +226,7 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
       service.addEndpoint(CHANNEL_SWING_MODE, rsp, EndpointType.string, ep -> {
         ep.setRange(OptionModel.list(rsp.getSupportedCustomPresetsList()));
         ep.setUpdateHandler(state ->
-          service.sendClimate(rsp,
+          service.sendClimate(rsp, SLOT_SWING_MODE,
             builder -> builder.setHasSwingMode(true).setSwingMode(ClimateSwingMode.valueOf(state.stringValue()))));
       });
     }
@@ -216,13 +238,22 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
                           String deviceClass,
                           @NotNull EndpointType endpointType,
                           Consumer<ESPHomeEndpoint> builder) {
-    service.addEndpointOptional(String.valueOf(key), () -> {
+    ESPHomeEndpoint endpoint = service.addEndpointOptional(String.valueOf(key), () -> {
       ESPHomeEndpoint espHomeEndpoint = new ESPHomeEndpoint(endpointID, endpointType, entity);
       espHomeEndpoint.setDescription(name);
       espHomeEndpoint.setDeviceClass(deviceClass);
       builder.accept(espHomeEndpoint);
       return espHomeEndpoint;
     });
+    if (endpoint.getResolution() > 0) {
+      endpoint.setStateFilter(new DeadbandFilter(endpoint.getResolution(), entity.getStateDeadband(),
+        entity.getStateDeadbandPercent(), TimeUnit.SECONDS.toMillis(entity.getStateMinInterval())));
+    }
+    synchronized (this) {
+      IntObjectMap<ESPHomeEndpoint> endpoints = endpointsByKey.copy();
+      endpoints.put(key, endpoint);
+      endpointsByKey = endpoints;
+    }
   }
 
   public void addEndpoint(
@@ -230,22 +261,30 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
     @NotNull ListEntitiesClimateResponse rsp,
     @NotNull EndpointType endpointType,
     Consumer<ESPHomeEndpoint> builder) {
-    service.addEndpointOptional(key + "_" + rsp.getKey(), () -> {
+    ESPHomeEndpoint endpoint = service.addEndpointOptional(key + "_" + rsp.getKey(), () -> {
       ESPHomeEndpoint espHomeEndpoint = new ESPHomeEndpoint(key, endpointType, entity);
       espHomeEndpoint.setDescription(rsp.getName());
       builder.accept(espHomeEndpoint);
       return espHomeEndpoint;
     });
+    synchronized (this) {
+      IntObjectMap<ESPHomeEndpoint[]> climateEndpoints = climateEndpointsByKey.copy();
+      ESPHomeEndpoint[] channels = climateEndpoints.get(rsp.getKey());
+      channels = channels == null ? new ESPHomeEndpoint[CLIMATE_CHANNELS.length] : channels.clone();
+      channels[Arrays.asList(CLIMATE_CHANNELS).indexOf(key)] = endpoint;
+      climateEndpoints.put(rsp.getKey(), channels);
+      climateEndpointsByKey = climateEndpoints;
+    }
   }
 
   public void initialize() {
-    connectionSelector.start();
-    scheduleConnect(0);
+    ReconnectScheduler.INSTANCE.schedule(entityID, this::connect);
   }
 
   public void destroy() {
-    connectionSelector.stop();
-    cancelReconnectFuture();
+    disposed = true;
+    ReconnectScheduler.INSTANCE.cancel(entityID);
+    EncryptedStreamHandler.evictHandshakeTemplate(entityID);
     if (frameHelper != null) {
       cancelPingWatchdog();
 
@@ -259,7 +298,6 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
         frameHelper.close();
       }
     }
-    disposed = true;
   }
 
   @Override
@@ -277,33 +315,45 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
   }
 
   @Override
-  public void onPacket(GeneratedMessage message) throws ProtocolAPIError {
+  public ActionResponseModel toggleWireTrace() {
+    wireTrace.setEnabled(!wireTrace.isEnabled());
+    log.info("[{}]: ESPHome. Wire trace {}", entityID, wireTrace.isEnabled() ? "enabled" : "disabled");
+    return ActionResponseModel.showSuccess(wireTrace.isEnabled() ? "Wire trace enabled" : "Wire trace disabled");
+  }
+
+  @Override
+  public ActionResponseModel showWireTrace() {
+    return ActionResponseModel.showJson("Wire trace", wireTrace.getRecords());
+  }
+
+  @Override
+  public void onPacket(int messageType, GeneratedMessage message) throws ProtocolAPIError {
     switch (connectionState) {
       case UNINITIALIZED -> log.warn("[{}]: ESPHome. Received packet while uninitialized.", entityID);
       case HELLO_SENT -> handleHelloResponse(message);
       case LOGIN_SENT -> handleLoginResponse(message);
-      case CONNECTED -> handleConnected(message);
+      case CONNECTED -> handleConnected(messageType, message);
     }
   }
 
   @Override
   public void onEndOfStream(String message) {
-    service.setDeviceStatus(OFFLINE, message);
+    setDeviceStatus(OFFLINE, message);
     setUndefToAllChannels();
     frameHelper.close();
     cancelPingWatchdog();
     connectionState = ConnectionState.UNINITIALIZED;
-    scheduleConnect(CONNECT_TIMEOUT * 2);
+    scheduleReconnect();
   }
 
   @Override
   public void onParseError(String message) {
-    service.setDeviceStatus(OFFLINE, message);
+    setDeviceStatus(OFFLINE, message);
     setUndefToAllChannels();
     cancelPingWatchdog();
     frameHelper.close();
     connectionState = ConnectionState.UNINITIALIZED;
-    scheduleConnect(CONNECT_TIMEOUT * 2);
+    scheduleReconnect();
   }
 
   @Override
@@ -315,6 +365,42 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
     frameHelper.send(helloRequest);
   }
 
+  @Override
+  public void onWritabilityChanged(boolean writable) {
+    synchronized (deferredCommands) {
+      this.writable = writable;
+      if (writable) {
+        log.info("[{}]: ESPHome. Outgoing messages drained, sending {} deferred commands", entityID,
+          deferredCommands.size());
+        for (GeneratedMessage command : deferredCommands.values()) {
+          sendMessage(command);
+        }
+        deferredCommands.clear();
+      } else {
+        log.warn("[{}]: ESPHome. Device doesn't accept outgoing messages fast enough, deferring commands", entityID);
+      }
+    }
+  }
+
+  /**
+   * Send command to device entity. While connection is unwritable commands are deferred, and only the latest
+   * command per entity key and slot is sent once queue drains, i.e. intermediate slider positions are dropped
+   *
+   * @param slot distinguishes commands to the same entity which don't supersede each other
+   */
+  public void sendCommand(int key, int slot, GeneratedMessage command) {
+    synchronized (deferredCommands) {
+      if (writable) {
+        sendMessage(command);
+      } else {
+        long commandKey = (long) MessageTypes.getId(command) << 40 | (long) slot << 32 | (key & 0xFFFFFFFFL);
+        // re-insert so deferred commands are sent in order of their latest update
+        deferredCommands.remove(commandKey);
+        deferredCommands.put(commandKey, command);
+      }
+    }
+  }
+
   @SneakyThrows
   public void sendMessage(GeneratedMessage message) {
     try {
@@ -325,102 +411,152 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
     }
   }
 
-  private void registerMessageHandlers() {
-    for (MessageHandler handler : MessageHandler.values()) {
-      classToHandlerMap.put(handler.listEntitiesClass, handler);
-      classToHandlerMap.put(handler.stateClass, handler);
+  private void updateState(int key, Function<ESPHomeEndpoint, State> stateHandler) {
+    updateState(endpointsByKey.get(key), stateHandler);
+  }
+
+  private void updateNumericState(int key, float state, boolean missingState) {
+    ESPHomeEndpoint endpoint = endpointsByKey.get(key);
+    if (endpoint != null) {
+      if (endpoint.isNumericStateChanged(state, missingState)) {
+        updateState(endpoint, ep -> ep.toNumericState(state, missingState));
+      } else if (endpoint.getStateFilter() != null) {
+        scheduleTrailingState(endpoint, endpoint.getStateFilter());
+      }
     }
   }
 
-  private void updateState(int key, Function<ESPHomeEndpoint, State> stateHandler) {
-    updateState(String.valueOf(key), stateHandler);
+  // value held back by min interval is published when interval ends, device doesn't repeat it while state is steady
+  private void scheduleTrailingState(ESPHomeEndpoint endpoint, DeadbandFilter stateFilter) {
+    long delay = stateFilter.scheduleTrailing();
+    if (delay >= 0) {
+      HashedWheelTimer.KEEPALIVE.schedule(() -> publishTrailingState(endpoint, stateFilter), delay,
+        TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void publishTrailingState(ESPHomeEndpoint endpoint, DeadbandFilter stateFilter) {
+    float state = stateFilter.takeTrailing();
+    if (Float.isNaN(state)) {
+      // newer value was published meanwhile, wait for the end of its interval if something is still held back
+      scheduleTrailingState(endpoint, stateFilter);
+    } else {
+      updateState(endpoint, ep -> ep.toNumericState(state, false));
+    }
   }
 
-  private void updateState(String key, Function<ESPHomeEndpoint, State> stateHandler) {
-    ESPHomeEndpoint endpoint = service.getEndpoints().get(key);
+  private void updateState(@Nullable ESPHomeEndpoint endpoint, Function<ESPHomeEndpoint, State> stateHandler) {
     if (endpoint != null) {
       State state = stateHandler.apply(endpoint);
       if (state != null) {
-        endpoint.setValue(state, true);
+        if (endpoint.isStateChanged(state)) {
+          endpoint.setValue(state, true);
+        }
       } else {
         endpoint.setInitialValue(new StringType("N/A"));
       }
     }
   }
 
-  private void scheduleConnect(int delay) {
-    reconnectFuture = service.context().bgp().builder("esphome-connect-" + entityID)
-      .delay(Duration.ofSeconds(delay))
-      .execute(this::connect);
+  private void setDeviceStatus(@NotNull Status status, @Nullable String message) {
+    // handler of connect which never completed has nothing received, its creation time isn't last seen
+    if (frameHelper != null && frameHelper.getLastReceived() > 0) {
+      service.updateLastSeen(frameHelper.getLastReceived());
+    }
+    service.setDeviceStatus(status, message);
+  }
+
+  // next attempt delay grows with failed attempts, see ReconnectScheduler
+  private void scheduleReconnect() {
+    if (!disposed) { // Don't reconnect if we've been disposed
+      ReconnectScheduler.INSTANCE.disconnected(entityID);
+      ReconnectScheduler.INSTANCE.schedule(entityID, this::connect);
+    }
   }
 
   private void connect() {
+    if (disposed) {
+      // destroyed after scheduler picked this connect, new socket would never be closed. destroy() released the slot
+      return;
+    }
     try {
       //  dynamicChannels.clear();
       log.info("[{}]: ESPHome. Trying to connect to {}:{}", entityID, ipAddress, entity.getNativeApiPort());
-      service.setDeviceStatus(UNKNOWN, String.format("Connecting to %s:%d", ipAddress, entity.getNativeApiPort()));
+      setDeviceStatus(UNKNOWN, String.format("Connecting to %s:%d", ipAddress, entity.getNativeApiPort()));
 
       boolean useEncryption = entity.getNativeEncryptionKey() != null;
       if (!useEncryption) {
         log.warn("Using unencrypted connection. This is deprecated and will be removed in the future. Please use encryption.");
       }
+      synchronized (deferredCommands) {
+        // commands deferred for previous connection are stale
+        deferredCommands.clear();
+        writable = true;
+      }
+      ConnectionSelector connectionSelector = ConnectionSelectorGroup.INSTANCE.next();
       frameHelper = useEncryption ? new EncryptedStreamHandler(connectionSelector,
-        this, entity.getNativeEncryptionKey().asString(), ipAddress)
+        this, entityID, entity.getNativeEncryptionKey().asString(), ipAddress)
         : new PlainTextStreamHandler(connectionSelector, this, ipAddress);
       //connection = new ESPHomeConnection(connectionSelector, handler, ipAddress);
+      frameHelper.setCoalesceWrites(entity.isCoalesceWrites());
+      frameHelper.setAcceptedMessageTypes(ACCEPTED_MESSAGE_TYPES);
+      frameHelper.setWireTrace(wireTrace);
+      connectStarted = System.currentTimeMillis();
       frameHelper.connect(new InetSocketAddress(ipAddress, entity.getNativeApiPort()));
     } catch (ProtocolException ex) {
       log.warn("[{}]: ESPHome. Error initial connection: {}", entityID, CommonUtils.getErrorMessage(ex));
-      service.setDeviceStatus(OFFLINE, ex.getMessage());
-      if (!disposed) { // Don't reconnect if we've been disposed
-        scheduleConnect(CONNECT_TIMEOUT * 2);
-      }
+      setDeviceStatus(OFFLINE, ex.getMessage());
+      scheduleReconnect();
     }
   }
 
-  private void handleConnected(GeneratedMessage message) throws ProtocolAPIError {
-    service.updateLastSeen();
-    log.debug("[{}]: ESPHome. Received message {}", entityID, message);
-    if (message instanceof DeviceInfoResponse rsp) {
-      if (!rsp.getMacAddress().equals(entity.getIeeeAddress())) {
-        log.error("[{}]: ESPHome. MAC Address not match!!!", entityID);
+  private void handleConnected(int messageType, GeneratedMessage message) throws ProtocolAPIError {
+    switch (messageType) {
+      case MessageTypes.DEVICE_INFO_RESPONSE -> {
+        DeviceInfoResponse rsp = (DeviceInfoResponse) message;
+        if (!rsp.getMacAddress().equals(entity.getIeeeAddress())) {
+          log.error("[{}]: ESPHome. MAC Address not match!!!", entityID);
+        }
+        if (entity.tryUpdate(rsp)) {
+          service.context().db().save(entity);
+        }
       }
-      if (entity.tryUpdate(rsp)) {
-        service.context().db().save(entity);
+      case MessageTypes.LIST_ENTITIES_DONE_RESPONSE -> {
+        // updateThing(editThing().withChannels(dynamicChannels).build());
+        log.debug("[{}]: ESPHome. Device interrogation complete, done updating thing channels", entityID);
+        // interrogated = true;
+        frameHelper.send(SubscribeStatesRequest.getDefaultInstance());
       }
-    } else if (message instanceof ListEntitiesDoneResponse) {
-      // updateThing(editThing().withChannels(dynamicChannels).build());
-      log.debug("[{}]: ESPHome. Device interrogation complete, done updating thing channels", entityID);
-      // interrogated = true;
-      frameHelper.send(SubscribeStatesRequest.getDefaultInstance());
-    } else if (message instanceof PingRequest) {
-      log.debug("[{}]: ESPHome. Responding to ping request", entityID);
-      frameHelper.send(PingResponse.getDefaultInstance());
-    } else if (message instanceof PingResponse) {
-      log.debug("[{}]: ESPHome. Received ping response", entityID);
-      lastPong = Instant.now();
-    } else if (message instanceof DisconnectRequest) {
-      frameHelper.send(DisconnectResponse.getDefaultInstance());
-      remoteDisconnect();
-    } else if (message instanceof DisconnectResponse) {
-      frameHelper.close();
-    } else {
+      case MessageTypes.PING_REQUEST -> {
+        log.debug("[{}]: ESPHome. Responding to ping request", entityID);
+        frameHelper.send(PingResponse.getDefaultInstance());
+      }
+      case MessageTypes.PING_RESPONSE -> log.debug("[{}]: ESPHome. Received ping response", entityID);
+      case MessageTypes.DISCONNECT_REQUEST -> {
+        frameHelper.send(DisconnectResponse.getDefaultInstance());
+        remoteDisconnect();
+      }
+      case MessageTypes.DISCONNECT_RESPONSE -> frameHelper.close();
       // Regular messages handled by message handlers
-      MessageHandler abstractMessageHandler = classToHandlerMap.get(message.getClass());
-      if (abstractMessageHandler != null) {
-        if (message.getClass().getSimpleName().startsWith("ListEntities")) {
-          abstractMessageHandler.endpointBuilder.accept(this, message);
-        } else {
-          try {
-            abstractMessageHandler.stateHandler.accept(this, message);
-          } catch (Exception ex) {
-            log.warn("[{}]: Error updating state: {}", entityID, CommonUtils.getErrorMessage(ex));
-          }
-        }
-      } else {
-        log.warn("[{}]: ESPHome. Unhandled message of type {}. This is lack of support in the binding. Content: '{}'.",
-          entityID, message.getClass().getName(), message);
+      default -> handleEntityMessage(messageType, message);
+    }
+  }
+
+  private void handleEntityMessage(int messageType, GeneratedMessage message) {
+    MessageHandler handler = LIST_ENTITIES_HANDLERS[messageType];
+    if (handler != null) {
+      handler.endpointBuilder.accept(this, message);
+      return;
+    }
+    handler = STATE_HANDLERS[messageType];
+    if (handler != null) {
+      try {
+        handler.stateHandler.accept(this, message);
+      } catch (Exception ex) {
+        log.warn("[{}]: Error updating state: {}", entityID, CommonUtils.getErrorMessage(ex));
       }
+    } else {
+      log.debug("[{}]: ESPHome. Unhandled message of type {}", entityID, messageType);
     }
   }
 
@@ -432,43 +568,53 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
         log.error("[{}]: ESPHome. Invalid password", entityID);
         frameHelper.close();
         connectionState = ConnectionState.UNINITIALIZED;
-        service.setDeviceStatus(OFFLINE, "Invalid password");
+        setDeviceStatus(OFFLINE, "Invalid password");
+        ReconnectScheduler.INSTANCE.release(entityID);
         return;
       }
       connectionState = ConnectionState.CONNECTED;
-      service.setDeviceStatus(ONLINE, null);
+      ReconnectScheduler.INSTANCE.connected(entityID);
+      setDeviceStatus(ONLINE, null);
       log.debug("[{}]: ESPHome. Device login complete, starting device interrogation", entityID);
 
-      // Reset last pong
-      lastPong = Instant.now();
+      unansweredPings = 0;
+      pingWatchdog = HashedWheelTimer.KEEPALIVE.scheduleAtFixedRate(this::ping, entity.getPingInterval(), TimeUnit.SECONDS);
 
-      pingWatchdogFuture = service.context().bgp().builder("ping-watchdog-" + entityID)
-        .intervalWithDelay(Duration.ofSeconds(entity.getPingInterval()))
-        .execute(this::ping);
-
-      frameHelper.send(DeviceInfoRequest.getDefaultInstance());
-      frameHelper.send(ListEntitiesRequest.getDefaultInstance());
+      frameHelper.send(DeviceInfoRequest.getDefaultInstance(), ListEntitiesRequest.getDefaultInstance());
     }
   }
 
+  // any received frame proves device is alive, so ping is sent only when connection was idle long enough
   private void ping() {
-    if (lastPong.plusSeconds((long) entity.getMaxPingTimeout() * entity.getPingInterval()).isBefore(Instant.now())) {
+    // last seen is taken from connection on keepalive tick instead of endpoint write per received message
+    long lastReceived = frameHelper.getLastReceived();
+    if (lastReceived > 0) {
+      service.updateLastSeen(lastReceived);
+      if (lastReceived >= lastPingSent) {
+        unansweredPings = 0;
+      }
+    }
+    long idleMillis = System.currentTimeMillis() - (lastReceived > 0 ? lastReceived : connectStarted);
+    // ping has to go out at least one ping interval before device is considered lost
+    long keepaliveIdleMillis = Math.min(entity.getKeepaliveIdle(),
+      (entity.getMaxPingTimeout() - 1) * entity.getPingInterval()) * 1000L;
+    if (idleMillis > entity.getMaxPingTimeout() * entity.getPingInterval() * 1000L) {
       log.warn(
-        "[{}]: ESPHome. Ping responses lacking Waited {} times {} seconds, total of {}. Assuming connection lost and "
-        + "disconnecting",
-        entityID, entity.getMaxPingTimeout(), entity.getPingInterval(),
-        entity.getMaxPingTimeout() * entity.getPingInterval());
-      pingWatchdogFuture.cancel(false);
+        "[{}]: ESPHome. Nothing received from device for {} seconds, max allowed {} times {} seconds. Assuming connection "
+        + "lost and disconnecting",
+        entityID, idleMillis / 1000, entity.getMaxPingTimeout(), entity.getPingInterval());
+      pingWatchdog.cancel();
       frameHelper.close();
       connectionState = ConnectionState.UNINITIALIZED;
-      service.setDeviceStatus(OFFLINE, String.format("ESPHome did not respond to ping requests. %d pings sent with %d s delay",
-        entity.getMaxPingTimeout(), entity.getPingInterval()));
-      scheduleConnect(10);
-    } else {
-
+      setDeviceStatus(OFFLINE, String.format("ESPHome did not respond for %d s. %d pings sent with %d s delay",
+        idleMillis / 1000, unansweredPings, entity.getPingInterval()));
+      scheduleReconnect();
+    } else if (idleMillis >= keepaliveIdleMillis) {
       try {
         log.debug("[{}]: ESPHome. Sending ping", entityID);
         frameHelper.send(PingRequest.getDefaultInstance());
+        lastPingSent = System.currentTimeMillis();
+        unansweredPings++;
       } catch (ProtocolAPIError e) {
         log.warn("[{}]: ESPHome. Error sending ping request", entityID, e);
       }
@@ -499,28 +645,25 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
     // getThing().getChannels().forEach(channel -> updateState(channel, UnDefType.UNDEF));
   }
 
-  private void cancelReconnectFuture() {
-    ContextBGP.cancel(reconnectFuture);
-  }
-
   private void cancelPingWatchdog() {
-    ContextBGP.cancel(pingWatchdogFuture);
+    Timeout.cancel(pingWatchdog);
   }
 
   private void remoteDisconnect() {
     frameHelper.close();
     setUndefToAllChannels();
     connectionState = ConnectionState.UNINITIALIZED;
-    service.setDeviceStatus(OFFLINE, String.format("ESPHome device requested disconnect. Will reconnect in %d seconds", CONNECT_TIMEOUT));
+    setDeviceStatus(OFFLINE, "ESPHome device requested disconnect. Will reconnect");
     cancelPingWatchdog();
-    scheduleConnect(CONNECT_TIMEOUT);
+    scheduleReconnect();
   }
 
-  private void sendClimate(ListEntitiesClimateResponse rsp, Consumer<Builder> commandBuilder) {
+  private void sendClimate(ListEntitiesClimateResponse rsp, int slot, Consumer<Builder> commandBuilder) {
     Builder builder = ClimateCommandRequest.newBuilder().setKey(rsp.getKey());
     commandBuilder.accept(builder);
     ClimateCommandRequest request = builder.build();
-    sendMessage(request);
+    // every climate channel sets own fields of command, so commands of different channels don't replace each other
+    sendCommand(rsp.getKey(), slot, request);
   }
 
   public enum MessageHandler {
@@ -529,10 +672,10 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
         ep.setPattern("%s");
         ep.setUpdateHandler(state -> {
           NumberCommandRequest request = NumberCommandRequest.newBuilder().setKey(rsp.getKey()).setState(state.floatValue()).build();
-          service.sendMessage(request);
+          service.sendCommand(rsp.getKey(), 0, request);
         });
       }), (service, rsp) ->
-      service.updateState(rsp.getKey(), ep -> toNumericState(ep, rsp.getState(), rsp.getMissingState()))),
+      service.updateNumericState(rsp.getKey(), rsp.getState(), rsp.getMissingState())),
     Button(ListEntitiesButtonResponse.class, ButtonCommandRequest.class, (service, rsp) ->
       service.addEndpoint(rsp.getKey(), rsp.getUniqueId(), rsp.getName(), rsp.getDeviceClass(), EndpointType.bool, ep -> {
       }), (service, rsp) -> {
@@ -545,7 +688,7 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
       service.addEndpoint(rsp.getKey(), rsp.getUniqueId(), rsp.getName(), null, EndpointType.string, ep ->
         ep.setUpdateHandler(state -> {
           SelectCommandRequest request = SelectCommandRequest.newBuilder().setKey(rsp.getKey()).setState(state.stringValue()).build();
-          service.sendMessage(request);
+          service.sendCommand(rsp.getKey(), 0, request);
         })), (service, rsp) ->
       service.updateState(rsp.getKey(), ep -> rsp.getMissingState() ? StringType.EMPTY : new StringType(rsp.getState()))),
     Sensor(ListEntitiesSensorResponse.class, SensorStateResponse.class, (service, rsp) ->
@@ -562,13 +705,14 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
           ep.setUnit(unitOfMeasurement);
         }
         ep.setPattern("%." + rsp.getAccuracyDecimals() + "f " + (unitOfMeasurement.equals("%") ? "%unit%" : unitOfMeasurement));
+        ep.setResolution((float) Math.pow(10, -rsp.getAccuracyDecimals()));
       }), (service, rsp) ->
-      service.updateState(rsp.getKey(), ep -> toNumericState(ep, rsp.getState(), rsp.getMissingState()))),
+      service.updateNumericState(rsp.getKey(), rsp.getState(), rsp.getMissingState())),
     BinarySensor(ListEntitiesBinarySensorResponse.class, BinarySensorStateResponse.class, (service, rsp) ->
       service.addEndpoint(rsp.getKey(), rsp.getUniqueId(), rsp.getName(), rsp.getDeviceClass(), EndpointType.bool, ep -> {
         ep.setUpdateHandler(state -> {
           SelectCommandRequest request = SelectCommandRequest.newBuilder().setKey(rsp.getKey()).setState(state.stringValue()).build();
-          service.sendMessage(request);
+          service.sendCommand(rsp.getKey(), 0, request);
         });
       }), (service, rsp) ->
       service.updateState(rsp.getKey(), ep -> rsp.getMissingState() ? null : OnOffType.of(rsp.getState()))),
@@ -576,7 +720,7 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
       service.addEndpoint(rsp.getKey(), rsp.getUniqueId(), rsp.getName(), rsp.getDeviceClass(), EndpointType.bool, ep ->
         ep.setUpdateHandler(state -> {
           SwitchCommandRequest request = SwitchCommandRequest.newBuilder().setKey(rsp.getKey()).setState(state.boolValue()).build();
-          service.sendMessage(request);
+          service.sendCommand(rsp.getKey(), 0, request);
         })), (service, rsp) ->
       service.updateState(rsp.getKey(), ep -> OnOffType.of(rsp.getState()))),
     Climate(ListEntitiesClimateResponse.class, ClimateStateResponse.class,
@@ -606,22 +750,26 @@ public class ESPHomeNativeApiService implements CommunicationListener, Communica
     }
 
     private static void handleClimateEndpoints(ESPHomeNativeApiService service, ClimateStateResponse rsp) {
-      service.updateState(CHANNEL_TARGET_TEMPERATURE + "_" + rsp.getKey(), endpoint ->
+      ESPHomeEndpoint[] channels = service.climateEndpointsByKey.get(rsp.getKey());
+      if (channels == null) {
+        return;
+      }
+      service.updateState(channels[SLOT_TARGET_TEMPERATURE], endpoint ->
         new DecimalType(rsp.getTargetTemperature()));
-      service.updateState(CHANNEL_CURRENT_TEMPERATURE + "_" + rsp.getKey(), endpoint ->
+      service.updateState(channels[SLOT_CURRENT_TEMPERATURE], endpoint ->
         new DecimalType(rsp.getCurrentTemperature()));
-      service.updateState(CHANNEL_MODE + "_" + rsp.getKey(), endpoint ->
-        new StringType(EnumHelper.stripEnumPrefix(rsp.getMode())));
-      service.updateState(CHANNEL_FAN_MODE + "_" + rsp.getKey(), endpoint ->
-        new StringType(EnumHelper.stripEnumPrefix(rsp.getFanMode())));
-      service.updateState(CHANNEL_CUSTOM_FAN_MODE + "_" + rsp.getKey(), endpoint ->
+      service.updateState(channels[SLOT_MODE], endpoint ->
+        EnumHelper.toState(rsp.getMode()));
+      service.updateState(channels[SLOT_FAN_MODE], endpoint ->
+        EnumHelper.toState(rsp.getFanMode()));
+      service.updateState(channels[SLOT_CUSTOM_FAN_MODE], endpoint ->
         new StringType(rsp.getCustomFanMode()));
-      service.updateState(CHANNEL_PRESET + "_" + rsp.getKey(), endpoint ->
-        new StringType(EnumHelper.stripEnumPrefix(rsp.getPreset())));
-      service.updateState(CHANNEL_CUSTOM_PRESET + "_" + rsp.getKey(), endpoint ->
+      service.updateState(channels[SLOT_PRESET], endpoint ->
+        EnumHelper.toState(rsp.getPreset()));
+      service.updateState(channels[SLOT_CUSTOM_PRESET], endpoint ->
         new StringType(rsp.getCustomPreset()));
-      service.updateState(CHANNEL_SWING_MODE + "_" + rsp.getKey(), endpoint ->
-        new StringType(EnumHelper.stripEnumPrefix(rsp.getSwingMode())));
+      service.updateState(channels[SLOT_SWING_MODE], endpoint ->
+        EnumHelper.toState(rsp.getSwingMode()));
     }
   }
 
@@ -0,0 +1,66 @@
+package com.southernstorm.noise.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ChaChaCoreTest {
+
+  @Test
+  void hashMatchesRfc8439TestVector() {
+    // RFC 8439 2.3.2, key 00..1f, counter 1, nonce 000000090000004a00000000
+    byte[] key = new byte[32];
+    for (int i = 0; i < key.length; i++) {
+      key[i] = (byte) i;
+    }
+    int[] input = new int[16];
+    ChaChaCore.initKey256(input, key, 0);
+    input[12] = 1;
+    input[13] = 0x09000000;
+    input[14] = 0x4a000000;
+    input[15] = 0;
+    int[] output = new int[16];
+
+    ChaChaCore.hash(output, input);
+
+    assertArrayEquals(new int[]{
+      0xe4e7f110, 0x15593bd1, 0x1fdd0f50, 0xc47120a3, 0xc7f4d1c7, 0x0368c033, 0x9aaa2204, 0x4e6cd4c3,
+      0x466482d2, 0x09aa9f07, 0x05d7c214, 0xa2028bd9, 0xd19c12b5, 0xb94e16de, 0xe883d0cb, 0x4e3c50a2}, output);
+  }
+
+  @Test
+  void parallelBlocksMatchScalarBlocks() {
+    int parallelBlocks = ChaChaCore.getParallelBlocks();
+    assumeTrue(parallelBlocks > 1, "jdk.incubator.vector is not available");
+    Random random = new Random(42);
+    int[] output = new int[16 * parallelBlocks];
+    for (int test = 0; test < 200; test++) {
+      int[] input = new int[16];
+      for (int i = 0; i < input.length; i++) {
+        input[i] = random.nextInt();
+      }
+      if (test % 2 == 0) {
+        // low counter word wraps within the batch
+        input[12] = -1 - random.nextInt(parallelBlocks);
+      }
+      int blocks = 1 + random.nextInt(parallelBlocks);
+      int[] original = input.clone();
+
+      ChaChaCore.hashBlocks(output, input, blocks);
+
+      assertArrayEquals(original, input, "input must not be modified");
+      int[] block = new int[16];
+      for (int i = 0; i < blocks; i++) {
+        ChaChaCore.hash(block, input);
+        assertArrayEquals(block, Arrays.copyOfRange(output, 16 * i, 16 * i + 16), "block " + i);
+        if (++input[12] == 0) {
+          ++input[13];
+        }
+      }
+    }
+  }
+}
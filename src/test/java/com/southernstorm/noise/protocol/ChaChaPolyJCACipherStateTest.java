@@ -0,0 +1,112 @@
+package com.southernstorm.noise.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.ShortBufferException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChaChaPolyJCACipherStateTest {
+
+  // around the 64 byte block and the multi-block keystream of vector core, up to the biggest noise payload
+  private static final int[] LENGTHS = {0, 1, 15, 16, 63, 64, 65, 255, 256, 257, 1000, 4096, Noise.MAX_PACKET_LEN - 16};
+
+  private final Random random = new Random(42);
+  private final byte[] key = randomBytes(32);
+
+  @Test
+  void ciphertextMatchesFallback() throws Exception {
+    CipherState jca = cipher(new ChaChaPolyJCACipherState());
+    CipherState fallback = cipher(new ChaChaPolyCipherState());
+    for (int length : LENGTHS) {
+      byte[] ad = length % 2 == 0 ? null : randomBytes(32);
+      byte[] plaintext = randomBytes(length);
+
+      byte[] expected = encrypt(fallback, ad, plaintext);
+      assertArrayEquals(expected, encrypt(jca, ad, plaintext), "length " + length);
+    }
+  }
+
+  @Test
+  void decryptsFallbackCiphertext() throws Exception {
+    assertRoundTrip(cipher(new ChaChaPolyCipherState()), cipher(new ChaChaPolyJCACipherState()));
+  }
+
+  @Test
+  void fallbackDecryptsCiphertext() throws Exception {
+    assertRoundTrip(cipher(new ChaChaPolyJCACipherState()), cipher(new ChaChaPolyCipherState()));
+  }
+
+  @Test
+  void encryptsInPlace() throws Exception {
+    CipherState jca = cipher(new ChaChaPolyJCACipherState());
+    CipherState fallback = cipher(new ChaChaPolyCipherState());
+    byte[] plaintext = randomBytes(1000);
+    byte[] expected = encrypt(fallback, null, plaintext);
+
+    byte[] buffer = Arrays.copyOf(plaintext, plaintext.length + 16);
+    assertEquals(expected.length, jca.encryptWithAd(null, buffer, 0, buffer, 0, plaintext.length));
+    assertArrayEquals(expected, buffer);
+
+    CipherState decrypt = cipher(new ChaChaPolyJCACipherState());
+    assertEquals(plaintext.length, decrypt.decryptWithAd(null, buffer, 0, buffer, 0, buffer.length));
+    assertArrayEquals(plaintext, Arrays.copyOf(buffer, plaintext.length));
+  }
+
+  @Test
+  void tamperedMessageIsRejected() throws Exception {
+    byte[] ad = randomBytes(8);
+    byte[] ciphertext = encrypt(cipher(new ChaChaPolyCipherState()), ad, randomBytes(100));
+    ciphertext[ciphertext.length - 1] ^= 1;
+
+    CipherState jca = cipher(new ChaChaPolyJCACipherState());
+    assertThrows(BadPaddingException.class,
+      () -> jca.decryptWithAd(ad, ciphertext, 0, new byte[100], 0, ciphertext.length));
+  }
+
+  @Test
+  void passesDataThroughWithoutKey() throws Exception {
+    CipherState jca = new ChaChaPolyJCACipherState();
+    byte[] plaintext = randomBytes(20);
+    byte[] output = new byte[20];
+
+    assertEquals(0, jca.getMACLength());
+    assertEquals(20, jca.encryptWithAd(null, plaintext, 0, output, 0, 20));
+    assertArrayEquals(plaintext, output);
+    assertThrows(ShortBufferException.class, () -> jca.encryptWithAd(null, plaintext, 0, new byte[10], 0, 20));
+  }
+
+  private void assertRoundTrip(CipherState encrypt, CipherState decrypt) throws Exception {
+    for (int length : LENGTHS) {
+      byte[] ad = length % 2 == 0 ? randomBytes(16) : null;
+      byte[] plaintext = randomBytes(length);
+      byte[] ciphertext = encrypt(encrypt, ad, plaintext);
+
+      byte[] decrypted = new byte[length];
+      assertEquals(length, decrypt.decryptWithAd(ad, ciphertext, 0, decrypted, 0, ciphertext.length));
+      assertArrayEquals(plaintext, decrypted, "length " + length);
+    }
+  }
+
+  private CipherState cipher(CipherState cipher) {
+    cipher.initializeKey(key, 0);
+    return cipher;
+  }
+
+  private static byte[] encrypt(CipherState cipher, byte[] ad, byte[] plaintext) throws ShortBufferException {
+    byte[] ciphertext = new byte[plaintext.length + 16];
+    assertEquals(ciphertext.length, cipher.encryptWithAd(ad, plaintext, 0, ciphertext, 0, plaintext.length));
+    return ciphertext;
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
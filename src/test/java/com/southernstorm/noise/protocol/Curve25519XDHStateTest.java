@@ -0,0 +1,72 @@
+package com.southernstorm.noise.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Curve25519XDHStateTest {
+
+  @Test
+  void publicKeyMatchesFallback() throws NoSuchAlgorithmException {
+    Curve25519DHState fallback = new Curve25519DHState();
+    fallback.generateKeyPair();
+    byte[] privateKey = new byte[32];
+    fallback.getPrivateKey(privateKey, 0);
+
+    Curve25519XDHState xdh = new Curve25519XDHState();
+    xdh.setPrivateKey(privateKey, 0);
+
+    assertArrayEquals(publicKey(fallback), publicKey(xdh));
+  }
+
+  @Test
+  void sharedKeyMatchesFallback() throws NoSuchAlgorithmException {
+    for (int i = 0; i < 20; i++) {
+      Curve25519XDHState xdh = new Curve25519XDHState();
+      xdh.generateKeyPair();
+      Curve25519DHState fallback = new Curve25519DHState();
+      fallback.generateKeyPair();
+      Curve25519DHState xdhPublic = new Curve25519DHState();
+      xdhPublic.setPublicKey(publicKey(xdh), 0);
+
+      byte[] xdhShared = new byte[32];
+      xdh.calculate(xdhShared, 0, fallback);
+      byte[] fallbackShared = new byte[32];
+      fallback.calculate(fallbackShared, 0, xdhPublic);
+
+      assertArrayEquals(fallbackShared, xdhShared);
+    }
+  }
+
+  @Test
+  void copyFromFallbackKeepsKeyPair() throws NoSuchAlgorithmException {
+    Curve25519DHState fallback = new Curve25519DHState();
+    fallback.generateKeyPair();
+    Curve25519XDHState xdh = new Curve25519XDHState();
+    xdh.copyFrom(fallback);
+
+    assertTrue(xdh.hasPrivateKey());
+    assertArrayEquals(publicKey(fallback), publicKey(xdh));
+  }
+
+  @Test
+  void smallOrderPointFails() throws NoSuchAlgorithmException {
+    Curve25519XDHState xdh = new Curve25519XDHState();
+    xdh.generateKeyPair();
+    Curve25519XDHState remote = new Curve25519XDHState();
+    // u = 0 is a point of small order, agreement with it gives all-zero secret
+    remote.setPublicKey(new byte[32], 0);
+
+    assertThrows(IllegalStateException.class, () -> xdh.calculate(new byte[32], 0, remote));
+  }
+
+  private static byte[] publicKey(DHState dh) {
+    byte[] key = new byte[32];
+    dh.getPublicKey(key, 0);
+    return key;
+  }
+}
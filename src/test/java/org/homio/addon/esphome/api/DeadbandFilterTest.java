@@ -0,0 +1,117 @@
+package org.homio.addon.esphome.api;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadbandFilterTest {
+
+  @Test
+  void firstValueIsAlwaysPublished() {
+    DeadbandFilter filter = new DeadbandFilter(0.1F, 5, 50, 60_000);
+
+    assertTrue(filter.accept(20F, 0));
+  }
+
+  @Test
+  void sameValueIsDropped() {
+    DeadbandFilter filter = new DeadbandFilter(0.1F, 0, 0, 0);
+
+    assertTrue(filter.accept(20F, 0));
+    assertFalse(filter.accept(20F, 1000));
+  }
+
+  @Test
+  void changeInvisibleAtResolutionIsDropped() {
+    DeadbandFilter filter = new DeadbandFilter(0.1F, 0, 0, 0);
+
+    assertTrue(filter.accept(20F, 0));
+    assertFalse(filter.accept(20.04F, 1000));
+    assertTrue(filter.accept(20.1F, 2000));
+  }
+
+  @Test
+  void absoluteDeadbandIsMeasuredFromPublishedValue() {
+    DeadbandFilter filter = new DeadbandFilter(0.1F, 5, 0, 0);
+
+    assertTrue(filter.accept(20F, 0));
+    assertFalse(filter.accept(20.3F, 1000));
+    assertFalse(filter.accept(20.4F, 2000));
+    assertTrue(filter.accept(20.6F, 3000));
+  }
+
+  @Test
+  void percentDeadbandIsMeasuredFromPublishedValue() {
+    DeadbandFilter filter = new DeadbandFilter(1F, 0, 10, 0);
+
+    assertTrue(filter.accept(100F, 0));
+    assertFalse(filter.accept(109F, 1000));
+    assertTrue(filter.accept(111F, 2000));
+  }
+
+  @Test
+  void resetPublishesNextValue() {
+    DeadbandFilter filter = new DeadbandFilter(0.1F, 0, 0, 0);
+
+    assertTrue(filter.accept(20F, 0));
+    filter.reset();
+    assertTrue(filter.accept(20F, 1000));
+  }
+
+  @Test
+  void valueWithinMinIntervalIsPublishedWhenIntervalEnds() {
+    DeadbandFilter filter = new DeadbandFilter(0.1F, 0, 0, 10_000);
+
+    assertTrue(filter.accept(20F, 0));
+    assertFalse(filter.accept(21F, 2000));
+    assertFalse(filter.accept(22F, 3000));
+    assertEquals(7000, filter.scheduleTrailing(3000));
+    // already scheduled
+    assertEquals(-1, filter.scheduleTrailing(4000));
+
+    assertEquals(22F, filter.takeTrailing(10_000));
+    // trailing value counts as published one
+    assertFalse(filter.accept(22F, 30_000));
+  }
+
+  @Test
+  void trailingValueSupersededByReturnToPublishedValueIsDropped() {
+    DeadbandFilter filter = new DeadbandFilter(0.1F, 0, 0, 10_000);
+
+    assertTrue(filter.accept(20F, 0));
+    assertFalse(filter.accept(21F, 2000));
+    filter.scheduleTrailing(2000);
+    assertFalse(filter.accept(20F, 3000));
+
+    assertTrue(Float.isNaN(filter.takeTrailing(10_000)));
+    assertEquals(-1, filter.scheduleTrailing(10_000));
+  }
+
+  @Test
+  void trailingValueWaitsForIntervalOfLaterPublishedValue() {
+    DeadbandFilter filter = new DeadbandFilter(0.1F, 0, 0, 10_000);
+
+    assertTrue(filter.accept(20F, 0));
+    assertFalse(filter.accept(21F, 2000));
+    assertEquals(8000, filter.scheduleTrailing(2000));
+    // published directly as interval ended before scheduled task ran
+    assertTrue(filter.accept(22F, 10_000));
+    assertFalse(filter.accept(23F, 10_000));
+
+    assertTrue(Float.isNaN(filter.takeTrailing(10_001)));
+    assertEquals(9999, filter.scheduleTrailing(10_001));
+    assertEquals(23F, filter.takeTrailing(20_000));
+  }
+
+  @Test
+  void noTrailingValueWithoutMinInterval() {
+    DeadbandFilter filter = new DeadbandFilter(0.1F, 5, 0, 0);
+
+    assertTrue(filter.accept(20F, 0));
+    assertFalse(filter.accept(20.2F, 1000));
+
+    assertEquals(-1, filter.scheduleTrailing(1000));
+  }
+}
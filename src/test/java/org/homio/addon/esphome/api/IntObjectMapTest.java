@@ -0,0 +1,91 @@
+package org.homio.addon.esphome.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IntObjectMapTest {
+
+  @Test
+  void putReturnsPreviousValue() {
+    IntObjectMap<String> map = new IntObjectMap<>();
+
+    assertNull(map.put(7, "a"));
+    assertEquals("a", map.put(7, "b"));
+    assertEquals("b", map.get(7));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  void missingKeyReturnsNull() {
+    IntObjectMap<String> map = new IntObjectMap<>();
+    map.put(0, "zero");
+
+    assertNull(map.get(1));
+    assertNull(map.get(Integer.MIN_VALUE));
+    assertEquals("zero", map.get(0));
+  }
+
+  @Test
+  void matchesHashMapWhileGrowing() {
+    // esphome keys are hashes of object names, so any int including negative ones is a valid key
+    Random random = new Random(42);
+    IntObjectMap<Integer> map = new IntObjectMap<>(2);
+    Map<Integer, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 5000; i++) {
+      int key = i % 3 == 0 ? random.nextInt(100) : random.nextInt();
+      assertEquals(expected.put(key, i), map.put(key, i));
+    }
+    assertEquals(expected.size(), map.size());
+    expected.forEach((key, value) -> assertEquals(value, map.get(key)));
+  }
+
+  @Test
+  void collidingKeysAreKeptApart() {
+    IntObjectMap<Integer> map = new IntObjectMap<>(4);
+    // multiples of a large power of two share low bits before mixing
+    for (int i = 0; i < 64; i++) {
+      map.put(i << 20, i);
+    }
+    for (int i = 0; i < 64; i++) {
+      assertEquals(i, map.get(i << 20));
+    }
+  }
+
+  @Test
+  void clearRemovesAllEntries() {
+    IntObjectMap<String> map = new IntObjectMap<>();
+    map.put(1, "a");
+    map.put(2, "b");
+    map.clear();
+
+    assertEquals(0, map.size());
+    assertNull(map.get(1));
+    assertNull(map.get(2));
+  }
+
+  @Test
+  void copyIsIndependent() {
+    IntObjectMap<String> map = new IntObjectMap<>();
+    map.put(1, "a");
+    IntObjectMap<String> copy = map.copy();
+    copy.put(1, "b");
+    copy.put(2, "c");
+
+    assertEquals("a", map.get(1));
+    assertNull(map.get(2));
+    assertEquals("b", copy.get(1));
+    assertEquals(2, copy.size());
+  }
+
+  @Test
+  void nullValuesAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> new IntObjectMap<String>().put(1, null));
+  }
+}
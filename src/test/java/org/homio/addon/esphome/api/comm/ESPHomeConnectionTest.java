@@ -0,0 +1,119 @@
+package org.homio.addon.esphome.api.comm;
+
+import com.google.protobuf.GeneratedMessage;
+import io.esphome.api.DeviceInfoRequest;
+import io.esphome.api.ListEntitiesRequest;
+import io.esphome.api.SubscribeStatesRequest;
+import org.homio.addon.esphome.api.CommunicationListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ESPHomeConnectionTest {
+
+  private final ConnectLimiter connectLimiter = new ConnectLimiter();
+  private ConnectionSelector selector;
+  private ServerSocket server;
+
+  @AfterEach
+  void stop() throws IOException {
+    if (selector != null) {
+      selector.stop();
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  void framesSentBeforeConnectFinishedAreWritten() throws Exception {
+    server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    selector = new ConnectionSelector("Test Selector", connectLimiter, 4, 4096);
+    selector.start();
+    CountDownLatch connected = new CountDownLatch(1);
+    PlainTextStreamHandler handler = new PlainTextStreamHandler(selector,
+      new Listener(connected, new CountDownLatch(1)), "localhost");
+
+    // hold the only connect slot, so connect stays pending while frames are sent
+    connectLimiter.setMaxConnects(1);
+    connectLimiter.acquire(() -> {
+    });
+    handler.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+    GeneratedMessage[] messages = {DeviceInfoRequest.getDefaultInstance(), ListEntitiesRequest.getDefaultInstance(),
+      SubscribeStatesRequest.getDefaultInstance()};
+    handler.send(messages[0]);
+    handler.send(messages[1], messages[2]);
+    connectLimiter.release();
+
+    assertTrue(connected.await(5, TimeUnit.SECONDS));
+    try (Socket socket = server.accept()) {
+      socket.setSoTimeout(5000);
+      DataInputStream input = new DataInputStream(socket.getInputStream());
+      for (GeneratedMessage message : messages) {
+        byte[] frame = handler.encodeFrame(message).array();
+        byte[] received = new byte[frame.length];
+        input.readFully(received);
+        assertArrayEquals(frame, received, message.getClass().getSimpleName());
+      }
+      assertEquals(0, input.available());
+    } finally {
+      handler.close();
+    }
+  }
+
+  @Test
+  void failedConnectHasNothingReceived() throws Exception {
+    // take free port and close it, so connect is refused
+    int port;
+    try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      port = closed.getLocalPort();
+    }
+    selector = new ConnectionSelector("Test Selector", connectLimiter, 4, 4096);
+    selector.start();
+    CountDownLatch connected = new CountDownLatch(1);
+    CountDownLatch ended = new CountDownLatch(1);
+    PlainTextStreamHandler handler = new PlainTextStreamHandler(selector, new Listener(connected, ended), "localhost");
+
+    handler.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    // not a proof of life, last seen of offline device must not move on every reconnect attempt
+    assertEquals(0, handler.getLastReceived());
+
+    assertTrue(ended.await(5, TimeUnit.SECONDS));
+    assertEquals(1, connected.getCount());
+    assertEquals(0, handler.getLastReceived());
+    handler.close();
+  }
+
+  private record Listener(CountDownLatch connected, CountDownLatch ended) implements CommunicationListener {
+
+    @Override
+    public void onPacket(int messageType, GeneratedMessage message) {
+    }
+
+    @Override
+    public void onEndOfStream(String message) {
+      ended.countDown();
+    }
+
+    @Override
+    public void onParseError(String message) {
+    }
+
+    @Override
+    public void onConnect() {
+      connected.countDown();
+    }
+  }
+}
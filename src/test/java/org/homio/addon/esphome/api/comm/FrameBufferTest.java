@@ -0,0 +1,95 @@
+package org.homio.addon.esphome.api.comm;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameBufferTest {
+
+  @Test
+  void readViewCoversUnreadBytes() throws ProtocolAPIError {
+    FrameBuffer buffer = new FrameBuffer();
+    buffer.write(ByteBuffer.wrap(sequence(0, 10)));
+
+    ByteBuffer view = buffer.readView();
+    assertEquals(10, view.remaining());
+    view.position(view.position() + 4);
+    buffer.consumeUntil(view.position());
+
+    assertEquals(6, buffer.readableBytes());
+    assertEquals(4, buffer.readView().get());
+  }
+
+  @Test
+  void consumingEverythingRewindsBuffer() throws ProtocolAPIError {
+    FrameBuffer buffer = new FrameBuffer();
+    buffer.write(ByteBuffer.wrap(sequence(0, 100)));
+    buffer.consumeUntil(buffer.readView().limit());
+
+    assertTrue(buffer.isEmpty());
+    assertEquals(0, buffer.readView().position());
+  }
+
+  @Test
+  void unreadBytesAreCompactedWhenTailRunsOut() throws ProtocolAPIError {
+    FrameBuffer buffer = new FrameBuffer();
+    buffer.write(ByteBuffer.wrap(sequence(0, 1000)));
+    buffer.consumeUntil(900);
+    buffer.write(ByteBuffer.wrap(sequence(1000, 500)));
+
+    ByteBuffer view = buffer.readView();
+    assertEquals(FrameBuffer.INITIAL_CAPACITY, view.capacity(), "must compact instead of growing");
+    assertEquals(0, view.position());
+    assertBytes(view, 900, 600);
+  }
+
+  @Test
+  void growsToFitFrameAndKeepsUnreadBytes() throws ProtocolAPIError {
+    FrameBuffer buffer = new FrameBuffer();
+    buffer.write(ByteBuffer.wrap(sequence(0, 600)));
+    buffer.consumeUntil(100);
+    buffer.write(ByteBuffer.wrap(sequence(600, 3000)));
+
+    ByteBuffer view = buffer.readView();
+    assertEquals(4096, view.capacity());
+    assertBytes(view, 100, 3500);
+    assertEquals(3500, buffer.getHighWaterMark());
+  }
+
+  @Test
+  void overflowIsProtocolError() throws ProtocolAPIError {
+    FrameBuffer buffer = new FrameBuffer();
+    buffer.write(ByteBuffer.allocate(FrameBuffer.MAX_CAPACITY - 1));
+
+    assertThrows(ProtocolAPIError.class, () -> buffer.write(ByteBuffer.allocate(2)));
+  }
+
+  @Test
+  void clearDropsUnreadBytes() throws ProtocolAPIError {
+    FrameBuffer buffer = new FrameBuffer();
+    buffer.write(ByteBuffer.wrap(sequence(0, 10)));
+    buffer.clear();
+
+    assertTrue(buffer.isEmpty());
+    assertEquals(0, buffer.readView().remaining());
+  }
+
+  private static byte[] sequence(int start, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (start + i);
+    }
+    return bytes;
+  }
+
+  private static void assertBytes(ByteBuffer view, int start, int length) {
+    assertEquals(length, view.remaining());
+    for (int i = 0; i < length; i++) {
+      assertEquals((byte) (start + i), view.get(view.position() + i), "byte " + i);
+    }
+  }
+}
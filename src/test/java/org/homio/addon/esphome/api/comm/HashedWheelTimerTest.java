@@ -0,0 +1,98 @@
+package org.homio.addon.esphome.api.comm;
+
+import org.homio.addon.esphome.api.comm.HashedWheelTimer.Timeout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedWheelTimerTest {
+
+  private final HashedWheelTimer timer = new HashedWheelTimer("Test Timer", 10);
+
+  @AfterEach
+  void stopTimer() {
+    timer.stop();
+  }
+
+  @Test
+  void runsTaskEveryPeriod() throws InterruptedException {
+    CountDownLatch runs = new CountDownLatch(5);
+    timer.scheduleAtFixedRate(runs::countDown, 20, TimeUnit.MILLISECONDS);
+
+    assertTrue(runs.await(2, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void periodLongerThanWheelIsNotShortened() throws InterruptedException {
+    // 64 buckets of 10 ms, period of 70 ticks wraps around the wheel
+    AtomicInteger runs = new AtomicInteger();
+    long start = System.nanoTime();
+    CountDownLatch firstRun = new CountDownLatch(1);
+    timer.scheduleAtFixedRate(() -> {
+      runs.incrementAndGet();
+      firstRun.countDown();
+    }, 700, TimeUnit.MILLISECONDS);
+
+    assertTrue(firstRun.await(2, TimeUnit.SECONDS));
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 650);
+    assertEquals(1, runs.get());
+  }
+
+  @Test
+  void oneShotTaskRunsOnceAfterDelay() throws InterruptedException {
+    AtomicInteger runs = new AtomicInteger();
+    CountDownLatch run = new CountDownLatch(1);
+    long start = System.nanoTime();
+    timer.schedule(() -> {
+      runs.incrementAndGet();
+      run.countDown();
+    }, 55, TimeUnit.MILLISECONDS);
+
+    assertTrue(run.await(2, TimeUnit.SECONDS));
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 55, "must not run before delay");
+    Thread.sleep(100);
+    assertEquals(1, runs.get());
+  }
+
+  @Test
+  void cancelledTaskDoesNotRunAgain() throws InterruptedException {
+    AtomicInteger runs = new AtomicInteger();
+    CountDownLatch firstRun = new CountDownLatch(1);
+    Timeout[] timeout = new Timeout[1];
+    timeout[0] = timer.scheduleAtFixedRate(() -> {
+      runs.incrementAndGet();
+      timeout[0].cancel();
+      firstRun.countDown();
+    }, 10, TimeUnit.MILLISECONDS);
+
+    assertTrue(firstRun.await(2, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    assertEquals(1, runs.get());
+  }
+
+  @Test
+  void restartAfterStopRunsOnSchedule() throws InterruptedException {
+    AtomicInteger staleRuns = new AtomicInteger();
+    timer.scheduleAtFixedRate(staleRuns::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+    // let wheel advance well beyond the period of the next task
+    Thread.sleep(500);
+    timer.stop();
+    staleRuns.set(0);
+
+    CountDownLatch run = new CountDownLatch(1);
+    long start = System.nanoTime();
+    timer.scheduleAtFixedRate(run::countDown, 20, TimeUnit.MILLISECONDS);
+
+    assertTrue(run.await(2, TimeUnit.SECONDS));
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 250,
+      "first run after restart must not wait for the ticks of previous worker");
+    Thread.sleep(100);
+    assertEquals(0, staleRuns.get(), "timeouts scheduled before stop must be dropped");
+  }
+}
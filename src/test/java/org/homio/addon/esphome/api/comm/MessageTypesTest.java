@@ -0,0 +1,78 @@
+package org.homio.addon.esphome.api.comm;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
+import io.esphome.api.APISourceType;
+import io.esphome.api.Api;
+import io.esphome.api.ApiOptions;
+import io.esphome.api.ConnectResponse;
+import io.esphome.api.DeviceInfoResponse;
+import io.esphome.api.DisconnectRequest;
+import io.esphome.api.DisconnectResponse;
+import io.esphome.api.HelloResponse;
+import io.esphome.api.ListEntitiesDoneResponse;
+import io.esphome.api.PingRequest;
+import io.esphome.api.PingResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MessageTypesTest {
+
+  @Test
+  void everyParserReadsMessageOfItsId() throws InvalidProtocolBufferException {
+    for (int id = 0; id <= MessageTypes.MAX_ID; id++) {
+      Parser<?> parser = MessageTypes.getParser(id);
+      if (parser != null) {
+        GeneratedMessage message = (GeneratedMessage) parser.parseFrom(new byte[0]);
+        assertEquals(id, MessageTypes.getId(message), message.getClass().getSimpleName());
+        assertEquals(message, parser.parseFrom(message.toByteString()));
+      }
+    }
+  }
+
+  @Test
+  void tableCoversAllMessagesSentByDevice() {
+    Set<Integer> expected = new TreeSet<>();
+    for (Descriptor descriptor : Api.getDescriptor().getMessageTypes()) {
+      int id = descriptor.getOptions().getExtension(ApiOptions.id);
+      if (id > 0 && descriptor.getOptions().getExtension(ApiOptions.source) != APISourceType.SOURCE_CLIENT) {
+        expected.add(id);
+      }
+    }
+    Set<Integer> registered = new TreeSet<>();
+    for (int id = 0; id <= MessageTypes.MAX_ID; id++) {
+      if (MessageTypes.getParser(id) != null) {
+        registered.add(id);
+      }
+    }
+
+    assertEquals(expected, registered);
+  }
+
+  @Test
+  void namedIdsMatchProto() {
+    assertEquals(MessageTypes.getId(HelloResponse.class), MessageTypes.HELLO_RESPONSE);
+    assertEquals(MessageTypes.getId(ConnectResponse.class), MessageTypes.CONNECT_RESPONSE);
+    assertEquals(MessageTypes.getId(DisconnectRequest.class), MessageTypes.DISCONNECT_REQUEST);
+    assertEquals(MessageTypes.getId(DisconnectResponse.class), MessageTypes.DISCONNECT_RESPONSE);
+    assertEquals(MessageTypes.getId(PingRequest.class), MessageTypes.PING_REQUEST);
+    assertEquals(MessageTypes.getId(PingResponse.class), MessageTypes.PING_RESPONSE);
+    assertEquals(MessageTypes.getId(DeviceInfoResponse.class), MessageTypes.DEVICE_INFO_RESPONSE);
+    assertEquals(MessageTypes.getId(ListEntitiesDoneResponse.class), MessageTypes.LIST_ENTITIES_DONE_RESPONSE);
+  }
+
+  @Test
+  void unknownIdHasNoParser() {
+    assertNull(MessageTypes.getParser(-1));
+    assertNull(MessageTypes.getParser(MessageTypes.MAX_ID + 1));
+    assertNotNull(MessageTypes.getParser(MessageTypes.MAX_ID));
+  }
+}
@@ -0,0 +1,80 @@
+package org.homio.addon.esphome.api.comm;
+
+import com.google.protobuf.GeneratedMessage;
+import io.esphome.api.SensorStateResponse;
+import io.esphome.api.TextSensorStateResponse;
+import org.homio.addon.esphome.api.CommunicationListener;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlainTextStreamHandlerTest {
+
+  private final List<GeneratedMessage> received = new ArrayList<>();
+  private final PlainTextStreamHandler handler = new PlainTextStreamHandler(null, new Listener(), "localhost");
+
+  @Test
+  void encodedFramesAreDecodedBack() throws Exception {
+    SensorStateResponse sensor = SensorStateResponse.newBuilder().setKey(-7).setState(21.5F).build();
+    // payload longer than 127 bytes needs two byte length varint
+    TextSensorStateResponse text = TextSensorStateResponse.newBuilder().setKey(3).setState("x".repeat(300)).build();
+    ByteBuffer sensorFrame = handler.encodeFrame(sensor, false);
+    ByteBuffer textFrame = handler.encodeFrame(text, false);
+
+    ByteBuffer stream = ByteBuffer.allocate(sensorFrame.remaining() + textFrame.remaining());
+    stream.put(sensorFrame).put(textFrame).flip();
+    assertEquals(0, handler.getLastReceived());
+    // split in the middle of second frame
+    handler.processReceivedData(stream.duplicate().limit(stream.limit() - 100));
+    handler.processReceivedData(stream.position(stream.limit() - 100));
+
+    assertEquals(List.of(sensor, text), received);
+    assertTrue(handler.getLastReceived() > 0);
+  }
+
+  @Test
+  void messagesNotAcceptedAreCountedInWireTrace() throws Exception {
+    WireTrace wireTrace = new WireTrace();
+    handler.setWireTrace(wireTrace);
+    BitSet accepted = new BitSet();
+    accepted.set(MessageTypes.getId(SensorStateResponse.class));
+    handler.setAcceptedMessageTypes(accepted);
+    SensorStateResponse sensor = SensorStateResponse.newBuilder().setKey(1).setState(1F).build();
+    TextSensorStateResponse text = TextSensorStateResponse.newBuilder().setKey(2).setState("on").build();
+
+    handler.processReceivedData(handler.encodeFrame(text, false));
+    handler.processReceivedData(handler.encodeFrame(sensor, false));
+    handler.processReceivedData(handler.encodeFrame(text, false));
+
+    assertEquals(List.of(sensor), received);
+    assertEquals(List.of("2 messages of type %d skipped".formatted(MessageTypes.getId(text))), wireTrace.getRecords());
+  }
+
+  private class Listener implements CommunicationListener {
+
+    @Override
+    public void onPacket(int messageType, GeneratedMessage message) {
+      assertEquals(MessageTypes.getId(message), messageType);
+      received.add(message);
+    }
+
+    @Override
+    public void onEndOfStream(String message) {
+    }
+
+    @Override
+    public void onParseError(String message) {
+      throw new AssertionError(message);
+    }
+
+    @Override
+    public void onConnect() {
+    }
+  }
+}
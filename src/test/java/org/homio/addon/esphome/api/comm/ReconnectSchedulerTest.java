@@ -0,0 +1,107 @@
+package org.homio.addon.esphome.api.comm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ReconnectSchedulerTest {
+
+  // first attempt is spread over 2 s and due devices are picked every 250 ms
+  private static final long FIRST_ATTEMPT_MILLIS = 3_000;
+
+  private final ReconnectScheduler scheduler = ReconnectScheduler.INSTANCE;
+  private final BlockingQueue<String> connects = new LinkedBlockingQueue<>();
+
+  @AfterEach
+  void shutdown() {
+    scheduler.shutdown();
+    scheduler.setMaxHandshakes(ReconnectScheduler.DEFAULT_MAX_HANDSHAKES);
+  }
+
+  @Test
+  void firstAttemptRunsShortlyAfterSchedule() throws InterruptedException {
+    schedule("a");
+
+    assertEquals("a", nextConnect());
+    assertNull(connects.poll(500, TimeUnit.MILLISECONDS), "attempt must run once per schedule");
+  }
+
+  @Test
+  void failedAttemptBacksOff() throws InterruptedException {
+    schedule("a");
+    assertEquals("a", nextConnect());
+
+    // second attempt waits at least half of 5 s base delay
+    schedule("a");
+    assertNull(connects.poll(2_000, TimeUnit.MILLISECONDS));
+    assertEquals("a", connects.poll(4_000, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void handshakesAreCapped() throws InterruptedException {
+    scheduler.setMaxHandshakes(1);
+    schedule("a");
+    schedule("b");
+
+    String first = nextConnect();
+    assertNull(connects.poll(FIRST_ATTEMPT_MILLIS, TimeUnit.MILLISECONDS), "second handshake must wait for slot");
+
+    scheduler.connected(first);
+    assertEquals(first.equals("a") ? "b" : "a", connects.poll(1_000, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void recentlyOnlineDeviceGoesFirst() throws InterruptedException {
+    scheduler.setMaxHandshakes(1);
+    schedule("online");
+    assertEquals("online", nextConnect());
+    scheduler.connected("online");
+    scheduler.disconnected("online");
+
+    // occupy the only slot until both devices are due
+    schedule("busy");
+    assertEquals("busy", nextConnect());
+    schedule("never");
+    schedule("online");
+    Thread.sleep(FIRST_ATTEMPT_MILLIS);
+    scheduler.release("busy");
+
+    assertEquals("online", connects.poll(1_000, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void connectCancelledAfterDispatchDoesNotRun() throws InterruptedException {
+    scheduler.setMaxHandshakes(1);
+    schedule("busy");
+    assertEquals("busy", nextConnect());
+    // both are due and picked by the same dispatch once slots are free, first one to run cancels the other
+    scheduler.schedule("a", () -> {
+      connects.add("a");
+      scheduler.cancel("b");
+    });
+    scheduler.schedule("b", () -> {
+      connects.add("b");
+      scheduler.cancel("a");
+    });
+    Thread.sleep(FIRST_ATTEMPT_MILLIS);
+    scheduler.setMaxHandshakes(3);
+
+    assertNotNull(connects.poll(1_000, TimeUnit.MILLISECONDS));
+    assertNull(connects.poll(500, TimeUnit.MILLISECONDS), "cancelled connect must not run");
+  }
+
+  private void schedule(String id) {
+    scheduler.schedule(id, () -> connects.add(id));
+  }
+
+  private String nextConnect() throws InterruptedException {
+    return connects.poll(FIRST_ATTEMPT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,54 @@
+package org.homio.addon.esphome.api.comm;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VarIntConverterTest {
+
+  private static final int[] VALUES = {0, 1, 0x7F, 0x80, 300, 0x3FFF, 0x4000, 0x1FFFFF, 0x200000, Integer.MAX_VALUE};
+
+  @Test
+  void encodesMinimalBytes() {
+    assertArrayEquals(new byte[]{0x7F}, VarIntConverter.intToBytes(0x7F));
+    assertArrayEquals(new byte[]{(byte) 0xAC, 0x02}, VarIntConverter.intToBytes(300));
+    assertEquals(5, VarIntConverter.intToBytes(Integer.MAX_VALUE).length);
+  }
+
+  @Test
+  void readsBackEncodedValues() throws ProtocolAPIError {
+    for (int value : VALUES) {
+      byte[] bytes = VarIntConverter.intToBytes(value);
+      assertEquals(value, VarIntConverter.bytesToInt(bytes));
+
+      // varint in the middle of a frame, followed by other bytes
+      ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 4);
+      buffer.put(2, bytes).position(1);
+      assertEquals(bytes.length, VarIntConverter.varIntSize(buffer, 2));
+      assertEquals(value, VarIntConverter.readVarInt(buffer, 2));
+      assertEquals(1, buffer.position(), "absolute reads must not move buffer");
+    }
+  }
+
+  @Test
+  void incompleteVarIntHasNoSize() throws ProtocolAPIError {
+    ByteBuffer buffer = ByteBuffer.wrap(VarIntConverter.intToBytes(0x4000));
+    buffer.limit(2);
+
+    assertEquals(0, VarIntConverter.varIntSize(buffer, 0));
+    assertEquals(0, VarIntConverter.varIntSize(buffer, 2));
+    assertNull(VarIntConverter.bytesToInt(new byte[]{(byte) 0x80, (byte) 0x80}));
+  }
+
+  @Test
+  void tooLongVarIntIsMalformed() {
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1});
+
+    assertThrows(ProtocolAPIError.class, () -> VarIntConverter.varIntSize(buffer, 0));
+  }
+}